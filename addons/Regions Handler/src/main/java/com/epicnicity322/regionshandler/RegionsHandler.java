@@ -20,10 +20,13 @@ package com.epicnicity322.regionshandler;
 import com.epicnicity322.epicpluginlib.core.util.ObjectUtils;
 import com.epicnicity322.nbssongplayer.NBSSongPlayer;
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.bukkit.sound.EnterLeaveSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundLoops;
 import com.epicnicity322.playmoresounds.bukkit.sound.SoundManager;
+import com.epicnicity322.playmoresounds.bukkit.sound.StopOnExit;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
-import com.epicnicity322.playmoresounds.core.sound.SoundType;
+import com.epicnicity322.playmoresounds.core.sound.RichSound;
 import com.epicnicity322.yamlhandler.Configuration;
 import com.epicnicity322.yamlhandler.ConfigurationSection;
 import org.bukkit.Bukkit;
@@ -31,19 +34,20 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.Cancellable;
 import org.bukkit.event.HandlerList;
 import org.bukkit.event.Listener;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.UUID;
 import java.util.function.Supplier;
 
 public class RegionsHandler
 {
     private static @Nullable PlayableRichSound regionEnterSound;
     private static @Nullable PlayableRichSound regionLeaveSound;
+    private static @Nullable StopOnExit regionEnterStopOnExit;
 
     static {
         Runnable runnable = () -> {
@@ -51,11 +55,13 @@ public class RegionsHandler
             ConfigurationSection regionEnterSection = sounds.getConfigurationSection("Region Enter");
             ConfigurationSection regionLeaveSection = sounds.getConfigurationSection("Region Leave");
 
-            if (regionEnterSection != null && regionEnterSection.getBoolean("Enabled").orElse(false))
-                regionEnterSound = new PlayableRichSound(regionEnterSection);
+            if (regionEnterSection != null && regionEnterSection.getBoolean("Enabled").orElse(false)) {
+                regionEnterSound = new PlayableRichSound(regionEnterSection, RichSound.Priority.HIGH);
+                regionEnterStopOnExit = StopOnExit.of(regionEnterSection);
+            }
 
             if (regionLeaveSection != null && regionLeaveSection.getBoolean("Enabled").orElse(false))
-                regionLeaveSound = new PlayableRichSound(regionLeaveSection);
+                regionLeaveSound = new PlayableRichSound(regionLeaveSection, RichSound.Priority.HIGH);
         };
 
         runnable.run();
@@ -63,8 +69,10 @@ public class RegionsHandler
     }
 
     private final @NotNull String pluginName;
-    private final @NotNull HashMap<String, BukkitRunnable> regionsInLoop = new HashMap<>();
-    private final @NotNull HashMap<String, HashSet<String>> soundsToStop = new HashMap<>();
+    // The loops of each player by region id.
+    private final @NotNull HashMap<UUID, HashMap<String, SoundLoops.Loop>> regionsInLoop = new HashMap<>();
+    // The sounds of each region of this plugin on regions.yml by region id, compiled on every reload.
+    private @NotNull HashMap<String, EnterLeaveSounds> regionSounds = new HashMap<>();
     private boolean registered = false;
 
     public RegionsHandler(@NotNull String pluginName, @NotNull Listener listener)
@@ -74,21 +82,24 @@ public class RegionsHandler
         Runnable runnable = () -> {
             Configuration regions = Configurations.REGIONS.getConfigurationHolder().getConfiguration();
             ConfigurationSection regionsYAMLSection = regions.getConfigurationSection(pluginName);
-            boolean load = !soundsToStop.isEmpty() || ObjectUtils.getOrDefault(regionEnterSound, regionLeaveSound) != null;
-
-            if (!load) {
-                if (regionsYAMLSection != null) {
-                    for (Map.Entry<String, Object> section : regionsYAMLSection.getAbsoluteNodes().entrySet()) {
-                        if (section.getKey().endsWith("Enabled")) {
-                            if (section.getValue() == Boolean.TRUE) {
-                                load = true;
-                                break;
-                            }
-                        }
-                    }
+            HashMap<String, EnterLeaveSounds> regionSounds = new HashMap<>();
+            boolean load = StopOnExit.isTracking(this) || ObjectUtils.getOrDefault(regionEnterSound, regionLeaveSound) != null;
+
+            if (regionsYAMLSection != null) {
+                for (Map.Entry<String, Object> node : regionsYAMLSection.getNodes().entrySet()) {
+                    if (!(node.getValue() instanceof ConfigurationSection)) continue;
+
+                    EnterLeaveSounds compiled = EnterLeaveSounds.region((ConfigurationSection) node.getValue());
+
+                    if (compiled.isEmpty()) continue;
+
+                    regionSounds.put(node.getKey(), compiled);
+                    load = true;
                 }
             }
 
+            this.regionSounds = regionSounds;
+
             if (load) {
                 if (!registered) {
                     Bukkit.getPluginManager().registerEvents(listener, PlayMoreSounds.getInstance());
@@ -105,62 +116,47 @@ public class RegionsHandler
         runnable.run();
         PlayMoreSounds.onReload(runnable);
 
-        PlayMoreSounds.onDisable(() -> regionsInLoop.entrySet().removeIf(entry -> {
-            entry.getValue().cancel();
-            return true;
-        }));
+        PlayMoreSounds.onDisable(() -> {
+            for (HashMap<String, SoundLoops.Loop> loops : regionsInLoop.values())
+                for (SoundLoops.Loop loop : loops.values()) loop.cancel();
+
+            regionsInLoop.clear();
+        });
     }
 
     public void onEnter(Player player, String regionId, Supplier<Boolean> stopper, Cancellable cancellable)
     {
-        ConfigurationSection regions = Configurations.REGIONS.getConfigurationHolder().getConfiguration().getConfigurationSection(pluginName);
+        EnterLeaveSounds sounds = regionSounds.get(regionId);
         boolean defaultSound = true;
 
-        String key = regionId + ";" + player.getUniqueId();
-
-        if (regionsInLoop.containsKey(key)) {
-            regionsInLoop.get(key).cancel();
-            regionsInLoop.remove(key);
-        }
+        cancelLoop(player, regionId);
 
-        if (regions != null) {
-            ConfigurationSection loop = regions.getConfigurationSection(regionId + ".Loop");
+        if (sounds != null) {
             boolean playEnterSound = true;
 
-            if (loop != null) {
-                PlayableRichSound loopSound = new PlayableRichSound(loop);
-
-                if (loopSound.isEnabled() && (cancellable == null || !cancellable.isCancelled() || !loopSound.isCancellable())) {
-                    long delay = loop.getNumber("Delay").orElse(0).longValue();
-                    long period = loop.getNumber("Period").orElse(0).longValue();
+            PlayableRichSound loopSound = sounds.getLoop();
 
-                    regionsInLoop.put(key, loopSound.playInLoop(player, player::getLocation, delay, period, stopper));
+            if (loopSound != null && (cancellable == null || !cancellable.isCancelled() || !loopSound.isCancellable())) {
+                regionsInLoop.computeIfAbsent(player.getUniqueId(), uuid -> new HashMap<>(4)).put(regionId, loopSound.loop(player, player::getLocation, sounds.getLoopDelay(), sounds.getLoopPeriod(), stopper == null ? null : stopper::get));
 
-                    stopOnExit(player, regionId, loop);
+                StopOnExit.track(player, this, regionId, sounds.getLoopStopOnExit());
 
-                    if (loop.getBoolean("Prevent Other Sounds.Default Sound").orElse(false))
-                        defaultSound = false;
-                    if (loop.getBoolean("Prevent Other Sounds.Enter Sound").orElse(false))
-                        playEnterSound = false;
-                }
+                if (sounds.isLoopPreventingDefaultSound())
+                    defaultSound = false;
+                if (sounds.isLoopPreventingEnterSound())
+                    playEnterSound = false;
             }
 
-            if (playEnterSound) {
-                ConfigurationSection enter = regions.getConfigurationSection(regionId + ".Enter");
+            PlayableRichSound enterSound = sounds.getEnter();
 
-                if (enter != null) {
-                    PlayableRichSound enterSound = new PlayableRichSound(enter);
+            if (playEnterSound && enterSound != null) {
+                if (cancellable == null || !cancellable.isCancelled() || !enterSound.isCancellable()) {
+                    enterSound.play(player);
 
-                    if (enterSound.isEnabled()) {
-                        if (cancellable == null || !cancellable.isCancelled() || !enterSound.isCancellable()) {
-                            enterSound.play(player);
+                    StopOnExit.track(player, this, regionId, sounds.getEnterStopOnExit());
 
-                            stopOnExit(player, regionId, enter);
-
-                            if (enter.getBoolean("Prevent Default Sound").orElse(false))
-                                defaultSound = false;
-                        }
-                    }
+                    if (sounds.isEnterPreventingDefaultSound())
+                        defaultSound = false;
                 }
             }
         }
@@ -169,63 +165,42 @@ public class RegionsHandler
             if (cancellable == null || !cancellable.isCancelled() || !regionEnterSound.isCancellable()) {
                 regionEnterSound.play(player);
 
-                if (regionEnterSound.isEnabled())
-                    stopOnExit(player, regionId, regionEnterSound.getSection());
+                StopOnExit.track(player, this, regionId, regionEnterStopOnExit);
             }
     }
 
     public void onLeave(Player player, String regionId, Cancellable cancellable)
     {
-        String stopKey = regionId + ";" + player.getUniqueId() + ";";
-
-        soundsToStop.entrySet().removeIf(entry -> {
-            String key = entry.getKey();
-
-            if (key.startsWith(stopKey)) {
-                long delay = Long.parseLong(key.substring(key.lastIndexOf(";") + 1));
-
-                HashSet<String> value = entry.getValue();
-
-                if (PlayMoreSounds.getInstance() != null && PlayMoreSounds.getInstance().getAddonManager().getAddons().stream().anyMatch(addon -> addon.toString().equals("NBS Song Player"))) {
-                    if (value != null)
-                        value.removeIf(sound -> {
-                            if (sound.startsWith("nbs::") && PlayMoreSounds.getAddonManager().getAddons().stream().anyMatch(addon -> addon.toString().equals("NBS Song Player"))) {
-                                NBSSongPlayer.stop(player, sound.substring(5));
-                                return true;
-                            }
-
-                            return false;
-                        });
-                }
+        StopOnExit.untrack(player, this, regionId, (stopPlayer, stopOnExit) -> {
+            HashSet<String> sounds = new HashSet<>(stopOnExit.getSounds());
+
+            if (PlayMoreSounds.getInstance() != null && PlayMoreSounds.getAddonManager().getAddons().stream().anyMatch(addon -> addon.toString().equals("NBS Song Player"))) {
+                sounds.removeIf(sound -> {
+                    if (sound.startsWith("nbs::")) {
+                        NBSSongPlayer.stop(stopPlayer, sound.substring(5));
+                        return true;
+                    }
 
-                SoundManager.stopSounds(player, value, delay);
-                return true;
+                    return false;
+                });
             }
 
-            return false;
+            SoundManager.stopSounds(stopPlayer, sounds, stopOnExit.getDelay());
         });
 
-        String key = regionId + ";" + player.getUniqueId();
-
-        if (regionsInLoop.containsKey(key)) {
-            regionsInLoop.get(key).cancel();
-            regionsInLoop.remove(key);
-        }
+        cancelLoop(player, regionId);
 
+        EnterLeaveSounds sounds = regionSounds.get(regionId);
         boolean defaultSound = true;
 
-        ConfigurationSection leave = Configurations.REGIONS.getConfigurationHolder().getConfiguration().getConfigurationSection(pluginName + "." + regionId + ".Leave");
+        PlayableRichSound leaveSound = sounds == null ? null : sounds.getLeave();
 
-        if (leave != null) {
-            PlayableRichSound leaveSound = new PlayableRichSound(leave);
+        if (leaveSound != null) {
+            if (cancellable == null || !cancellable.isCancelled() || !leaveSound.isCancellable()) {
+                leaveSound.play(player);
 
-            if (leaveSound.isEnabled()) {
-                if (cancellable == null || !cancellable.isCancelled() || !leaveSound.isCancellable()) {
-                    leaveSound.play(player);
-
-                    if (leave.getBoolean("Prevent Default Sound").orElse(false))
-                        defaultSound = false;
-                }
+                if (sounds.isLeavePreventingDefaultSound())
+                    defaultSound = false;
             }
         }
 
@@ -234,21 +209,15 @@ public class RegionsHandler
                 regionLeaveSound.play(player);
     }
 
-    private void stopOnExit(Player player, String regionId, ConfigurationSection section)
+    private void cancelLoop(@NotNull Player player, @NotNull String regionId)
     {
-        if (section.getBoolean("Stop On Exit.Enabled").orElse(false)) {
-            String key = regionId + ";" + player.getUniqueId() + ";" + section.getNumber("Stop On Exit.Delay").orElse(0);
-            HashSet<String> sounds = soundsToStop.getOrDefault(key, new HashSet<>());
-            ConfigurationSection soundsSection = section.getConfigurationSection("Sounds");
+        HashMap<String, SoundLoops.Loop> loops = regionsInLoop.get(player.getUniqueId());
 
-            if (soundsSection != null)
-                for (String sound : soundsSection.getNodes().keySet()) {
-                    String soundToStop = soundsSection.getString(sound + ".Sound").orElse("");
+        if (loops == null) return;
 
-                    sounds.add(SoundType.getPresentSoundNames().contains(soundToStop) ? SoundType.valueOf(soundToStop).getSound().orElse("") : soundToStop);
-                }
+        SoundLoops.Loop loop = loops.remove(regionId);
 
-            soundsToStop.put(key, sounds);
-        }
+        if (loop != null) loop.cancel();
+        if (loops.isEmpty()) regionsInLoop.remove(player.getUniqueId());
     }
 }
@@ -0,0 +1,118 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.region;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.lang.reflect.Proxy;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares finding the regions at a location by testing every region, as the listeners did before the regions were
+ * indexed, with the chunk index of {@link RegionSnapshot}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegionLookupBenchmark
+{
+    private static final int AREA = 10000;
+    private static final int LOCATIONS = 1024;
+
+    @Param({"100", "1000", "10000"})
+    public int regionCount;
+    private RegionSnapshot snapshot;
+    private Location[] locations;
+    private int next;
+
+    /**
+     * A world that only has an id, which is all the regions and the snapshot need.
+     */
+    private static World world()
+    {
+        UUID id = UUID.randomUUID();
+
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[]{World.class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUID":
+                    return id;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return id.hashCode();
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    @Setup
+    public void setup()
+    {
+        World world = world();
+        Random random = new Random(0);
+        ArrayList<SoundRegion> regions = new ArrayList<>(regionCount);
+
+        for (int i = 0; i < regionCount; ++i) {
+            int x = random.nextInt(AREA);
+            int z = random.nextInt(AREA);
+            int y = random.nextInt(200);
+            Location min = new Location(world, x, y, z);
+            Location max = new Location(world, x + 4 + random.nextInt(60), y + 4 + random.nextInt(40), z + 4 + random.nextInt(60));
+
+            regions.add(new SoundRegion(UUID.randomUUID(), "region_" + i, null, ZonedDateTime.now(), null, max, min, RegionShape.CUBOID));
+        }
+
+        snapshot = new RegionSnapshot(regions);
+        locations = new Location[LOCATIONS];
+
+        for (int i = 0; i < LOCATIONS; ++i)
+            locations[i] = new Location(world, random.nextInt(AREA), random.nextInt(256), random.nextInt(AREA));
+    }
+
+    private Location nextLocation()
+    {
+        return locations[next++ & (LOCATIONS - 1)];
+    }
+
+    @Benchmark
+    public void scan(Blackhole blackhole)
+    {
+        Location location = nextLocation();
+
+        for (SoundRegion region : snapshot.getRegions())
+            if (region.isInside(location)) blackhole.consume(region);
+    }
+
+    @Benchmark
+    public void chunkIndex(Blackhole blackhole)
+    {
+        for (SoundRegion region : snapshot.getRegionsAt(nextLocation())) blackhole.consume(region);
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.core.sound.SoundOptions;
+import org.bukkit.Location;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the per-play work of reading {@link SoundOptions} every time a sound plays, as {@link PlayableSound} did
+ * before plans, with reading a precompiled {@link SoundPlan}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoundPlanBenchmark
+{
+    @Param({"false", "true"})
+    public boolean relativeLocation;
+    private SoundOptions options;
+    private SoundPlan plan;
+    private Location location;
+
+    /**
+     * The way the relative location was added before plans, looking up the offsets on every play.
+     */
+    private static @NotNull Location addRelativeLocation(@NotNull Location location, @NotNull Map<SoundOptions.Direction, Double> locationToAdd)
+    {
+        if (!locationToAdd.isEmpty()) {
+            location = location.clone();
+
+            Double leftRight = locationToAdd.get(SoundOptions.Direction.LEFT_RIGHT);
+            Double frontBack = locationToAdd.get(SoundOptions.Direction.FRONT_BACK);
+            Double upDown = locationToAdd.get(SoundOptions.Direction.UP_DOWN);
+            double sin = 0;
+            double cos = 0;
+
+            if (leftRight != null) {
+                double angle = Math.PI * 2 * location.getYaw() / 360;
+                sin = Math.sin(angle);
+                cos = Math.cos(angle);
+
+                location.add(leftRight * cos, 0.0, leftRight * sin);
+            }
+
+            if (frontBack != null) {
+                if (leftRight == null) {
+                    double angle = Math.PI * 2 * location.getYaw() / 360 * -1;
+                    sin = Math.sin(angle);
+                    cos = Math.cos(angle);
+                } else {
+                    sin = sin * -1;
+                    cos = cos * -1;
+                }
+
+                location.add(frontBack * sin, 0.0, frontBack * cos);
+            }
+
+            if (upDown != null)
+                location.add(0.0, upDown, 0.0);
+        }
+
+        return location;
+    }
+
+    @Setup
+    public void setup()
+    {
+        EnumMap<SoundOptions.Direction, Double> offsets = new EnumMap<>(SoundOptions.Direction.class);
+
+        if (relativeLocation) {
+            offsets.put(SoundOptions.Direction.LEFT_RIGHT, 2.0);
+            offsets.put(SoundOptions.Direction.FRONT_BACK, -1.5);
+            offsets.put(SoundOptions.Direction.UP_DOWN, 1.0);
+        }
+
+        options = new SoundOptions(false, null, null, 16.0, offsets);
+        plan = new SoundPlan(options, 1.0f, null, null);
+        // No world is needed to add offsets.
+        location = new Location(null, 120.5, 64.0, -35.5, 45.0f, 0.0f);
+    }
+
+    @Benchmark
+    public void options(Blackhole blackhole)
+    {
+        double radiusSquared = options.getRadiusSquared();
+
+        blackhole.consume(radiusSquared > 0 ? 1 : radiusSquared == 0 ? 0 : radiusSquared < -1 ? 3 : 2);
+        blackhole.consume(addRelativeLocation(location, options.getRelativeLocation()));
+    }
+
+    @Benchmark
+    public void plan(Blackhole blackhole)
+    {
+        // The options are checked for changes before the plan is used, like PlayableSound does.
+        blackhole.consume(plan.isUpToDate(options));
+        blackhole.consume(plan.radiusMode);
+        blackhole.consume(plan.addRelativeLocation(location));
+    }
+}
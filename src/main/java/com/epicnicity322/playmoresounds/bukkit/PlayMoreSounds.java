@@ -30,6 +30,9 @@ import com.epicnicity322.playmoresounds.bukkit.command.CommandLoader;
 import com.epicnicity322.playmoresounds.bukkit.listener.*;
 import com.epicnicity322.playmoresounds.bukkit.metrics.Metrics;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableSound;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundPreferences;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundScheduler;
+import com.epicnicity322.playmoresounds.bukkit.sound.SpatialPlayerIndex;
 import com.epicnicity322.playmoresounds.bukkit.util.ListenerRegister;
 import com.epicnicity322.playmoresounds.bukkit.util.UpdateManager;
 import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
@@ -296,6 +299,14 @@ public final class PlayMoreSounds extends JavaPlugin
             pluginManager.registerEvents(new OnPlayerQuit(), this);
             // Registering region enter and leave event caller.
             pluginManager.registerEvents(new OnPlayerTeleport(this), this);
+            // Loading the sound preferences of players logging in.
+            SoundPreferences.load(this);
+            // Indexing players by location so sounds with radius only check nearby players.
+            SpatialPlayerIndex.load(this);
+            // Running all delayed sounds from a single task.
+            SoundScheduler.load(this);
+            // Checking region and biome changes every few ticks, if set on config.
+            MovementSampler.load(this);
             // TimeTrigger checks itself it does need to load or not on load method.
             WorldTimeListener.load();
 
@@ -346,7 +346,7 @@ public final class RegionSubCommand extends Command implements Helpable
             if (sender instanceof Player) {
                 Location location = ((Player) sender).getLocation();
 
-                regions = RegionManager.getRegions().stream().filter(region -> region.isInside(location)).collect(Collectors.toSet());
+                regions = new HashSet<>(RegionManager.getRegionsAt(location));
 
                 if (regions.isEmpty()) {
                     lang.send(sender, lang.get("Region.Info.Error.No Regions"));
@@ -383,10 +383,17 @@ public final class RegionSubCommand extends Command implements Helpable
 
                 showingBorders.incrementAndGet();
 
-                BukkitTask task = Bukkit.getScheduler().runTaskTimer(plugin, () -> {
-                    for (Location border : region.getBorder())
-                        ((Player) sender).spawnParticle(Particle.NOTE, border, count, r, g, b);
-                }, 0, 5);
+                Player viewer = (Player) sender;
+                int distance = config.getConfiguration().getNumber("Sound Regions.Border.Max Distance").orElse(32).intValue();
+                Location particle = new Location(region.getMaxDiagonal().getWorld(), 0, 0, 0);
+
+                // Only the border close to the player is shown, so big regions don't send thousands of particles.
+                BukkitTask task = Bukkit.getScheduler().runTaskTimer(plugin, () -> region.forEachBorderBlock(viewer.getLocation(), distance, (x, y, z) -> {
+                    particle.setX(x);
+                    particle.setY(y);
+                    particle.setZ(z);
+                    viewer.spawnParticle(Particle.NOTE, particle, count, r, g, b);
+                }), 0, 5);
 
                 Bukkit.getScheduler().runTaskLater(plugin, () -> {
                     task.cancel();
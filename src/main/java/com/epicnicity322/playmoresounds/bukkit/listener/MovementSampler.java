@@ -0,0 +1,213 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.listener;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.bukkit.region.RegionMembership;
+import com.epicnicity322.playmoresounds.bukkit.util.UniversalVersionMethods;
+import com.epicnicity322.playmoresounds.core.config.Configurations;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Checks region and biome changes of all online players at once every "Performance.Movement Sampling Period" ticks,
+ * instead of on every {@link org.bukkit.event.player.PlayerMoveEvent}. Enter and leave events and sounds are the same
+ * as the ones of {@link OnPlayerMove}, but may happen up to the period late.
+ * <p>
+ * The player already moved when a change is found, so if a region event is cancelled the player is teleported back to
+ * where they were on the previous sample.
+ * <p>
+ * Respawning and changing worlds are not moves, the sample of the player is reset to where they are after them.
+ */
+public final class MovementSampler
+{
+    private static final @NotNull HashMap<UUID, Location> lastLocations = new HashMap<>();
+    // Reused to read the location of players that did not move, the sampler only runs on the main thread.
+    private static final @NotNull Location sampleLocation = new Location(null, 0, 0, 0);
+    private static @Nullable PlayMoreSounds plugin;
+    private static @Nullable BukkitTask task;
+    private static @Nullable Player reverting;
+    private static int period = 0;
+
+    static {
+        PlayMoreSounds.onReload(MovementSampler::updatePeriod);
+        PlayMoreSounds.onDisable(() -> {
+            plugin = null;
+            task = null;
+            period = 0;
+            lastLocations.clear();
+        });
+    }
+
+    private MovementSampler()
+    {
+    }
+
+    /**
+     * Starts sampling the movement of players if a sampling period is set on config.
+     *
+     * @param plugin The plugin to run the sampling task.
+     */
+    public static void load(@NotNull PlayMoreSounds plugin)
+    {
+        MovementSampler.plugin = plugin;
+        Bukkit.getPluginManager().registerEvents(new ResetListener(), plugin);
+        updatePeriod();
+    }
+
+    private static void updatePeriod()
+    {
+        int newPeriod = Math.max(Configurations.CONFIG.getConfigurationHolder().getConfiguration().getNumber("Performance.Movement Sampling Period").orElse(0).intValue(), 0);
+
+        if (newPeriod == period) return;
+
+        period = newPeriod;
+
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+
+        lastLocations.clear();
+
+        if (period > 0 && plugin != null) task = Bukkit.getScheduler().runTaskTimer(plugin, MovementSampler::sample, period, period);
+    }
+
+    /**
+     * @return Whether region and biome changes are being sampled, instead of checked on every move.
+     */
+    public static boolean isEnabled()
+    {
+        return task != null;
+    }
+
+    /**
+     * Whether the player is being teleported back because a region event of their last sampled move was cancelled.
+     *
+     * @param player The player being teleported.
+     * @return If this teleport should not be considered a move.
+     */
+    static boolean isReverting(@NotNull Player player)
+    {
+        return reverting == player;
+    }
+
+    /**
+     * Sets the location of the last sample of the player, so moves that were already handled, like teleports, are not
+     * sampled again.
+     *
+     * @param player   The player who moved.
+     * @param location The new location of the player.
+     */
+    static void moved(@NotNull Player player, @NotNull Location location)
+    {
+        if (task != null) lastLocations.put(player.getUniqueId(), location.clone());
+    }
+
+    static void quit(@NotNull Player player)
+    {
+        lastLocations.remove(player.getUniqueId());
+    }
+
+    private static void sample()
+    {
+        for (Player player : UniversalVersionMethods.getOnlinePlayers()) {
+            Location last = lastLocations.get(player.getUniqueId());
+
+            if (last == null) {
+                lastLocations.put(player.getUniqueId(), player.getLocation());
+                continue;
+            }
+
+            Location current = player.getLocation(sampleLocation);
+
+            if (current.getBlockX() == last.getBlockX() && current.getBlockY() == last.getBlockY()
+                    && current.getBlockZ() == last.getBlockZ() && current.getWorld() == last.getWorld())
+                continue;
+
+            current = current.clone();
+
+            SampledMove move = new SampledMove();
+
+            OnPlayerMove.callRegionEnterLeaveEvents(move, player, last, current);
+            OnPlayerMove.checkBiomeEnterLeaveSounds(move, player, last, current);
+            RegionMembership.confirm(player, move.cancelled);
+
+            if (move.cancelled) {
+                reverting = player;
+
+                try {
+                    player.teleport(last, PlayerTeleportEvent.TeleportCause.PLUGIN);
+                } finally {
+                    reverting = null;
+                }
+            } else {
+                lastLocations.put(player.getUniqueId(), current);
+            }
+        }
+    }
+
+    private static final class ResetListener implements Listener
+    {
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerRespawn(PlayerRespawnEvent event)
+        {
+            moved(event.getPlayer(), event.getRespawnLocation());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+        {
+            Player player = event.getPlayer();
+
+            moved(player, player.getLocation());
+        }
+    }
+
+    private static final class SampledMove implements Cancellable
+    {
+        private boolean cancelled = false;
+
+        @Override
+        public boolean isCancelled()
+        {
+            return cancelled;
+        }
+
+        @Override
+        public void setCancelled(boolean cancelled)
+        {
+            this.cancelled = cancelled;
+        }
+    }
+}
@@ -27,6 +27,7 @@ import com.comphenix.protocol.events.PacketEvent;
 import com.comphenix.protocol.reflect.StructureModifier;
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundQueue;
 import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
 import com.epicnicity322.playmoresounds.core.sound.SoundType;
@@ -147,7 +148,8 @@ public final class NatureSoundReplacer extends PacketAdapter
 
             event.setCancelled(true);
             // The server multiplies the xyz by 8 before sending the packet.
-            sound.play(player, new Location(player.getWorld(), xyz.read(0) / 8.0, xyz.read(1) / 8.0, xyz.read(2) / 8.0));
+            // Packets are sent from netty threads, the sound must be played on the main thread.
+            SoundQueue.submit(sound, player, new Location(player.getWorld(), xyz.read(0) / 8.0, xyz.read(1) / 8.0, xyz.read(2) / 8.0));
         }
     }
 }
\ No newline at end of file
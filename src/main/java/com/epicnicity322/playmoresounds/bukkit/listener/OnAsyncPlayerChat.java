@@ -20,6 +20,7 @@ package com.epicnicity322.playmoresounds.bukkit.listener;
 
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundQueue;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
 import com.epicnicity322.yamlhandler.Configuration;
 import com.epicnicity322.yamlhandler.ConfigurationSection;
@@ -135,7 +136,7 @@ public final class OnAsyncPlayerChat extends PMSListener
 
                 if (!event.isCancelled() || !criteria.isCancellable()) {
                     if (matchesFilter(filter.getKey(), criteriaSection.getName(), message)) {
-                        Bukkit.getScheduler().runTask(plugin, () -> criteria.play(player));
+                        SoundQueue.submit(criteria, player);
 
                         if (criteriaSection.getBoolean("Prevent Other Sounds.Default Sound").orElse(false))
                             defaultSound = false;
@@ -152,7 +153,7 @@ public final class OnAsyncPlayerChat extends PMSListener
 
             if (sound != null)
                 if (!event.isCancelled() || !sound.isCancellable())
-                    Bukkit.getScheduler().runTask(plugin, () -> sound.play(player));
+                    SoundQueue.submit(sound, player);
         }
     }
 }
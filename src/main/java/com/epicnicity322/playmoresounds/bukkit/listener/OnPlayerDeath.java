@@ -22,6 +22,7 @@ import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
 import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
+import com.epicnicity322.playmoresounds.core.sound.RichSound;
 import com.epicnicity322.yamlhandler.Configuration;
 import com.epicnicity322.yamlhandler.ConfigurationSection;
 import org.bukkit.Bukkit;
@@ -87,7 +88,7 @@ public final class OnPlayerDeath extends PMSListener
                     ConfigurationSection deathTypeSection = (ConfigurationSection) deathType.getValue();
 
                     if (deathTypeSection.getBoolean("Enabled").orElse(false)) {
-                        specificDeaths.put(deathType.getKey().toUpperCase(), new PlayableRichSound(deathTypeSection));
+                        specificDeaths.put(deathType.getKey().toUpperCase(), new PlayableRichSound(deathTypeSection, RichSound.Priority.HIGH));
                         specificDeathEnabled = true;
                     }
                 }
@@ -96,7 +97,7 @@ public final class OnPlayerDeath extends PMSListener
 
         if (defaultEnabled || specificDeathEnabled) {
             if (defaultEnabled)
-                setRichSound(new PlayableRichSound(defaultSection));
+                setRichSound(new PlayableRichSound(defaultSection, RichSound.Priority.HIGH));
 
             if (!isLoaded()) {
                 Bukkit.getPluginManager().registerEvents(this, plugin);
@@ -112,10 +113,10 @@ public final class OnPlayerDeath extends PMSListener
         if (!VersionUtils.hasPersistentData()) EntityDamageEvent.getHandlerList().unregister(this);
 
         if (sounds.getBoolean("Player Kill.Enabled").orElse(false)) {
-            playerKill = new PlayableRichSound(sounds.getConfigurationSection("Player Kill"));
+            playerKill = new PlayableRichSound(sounds.getConfigurationSection("Player Kill"), RichSound.Priority.HIGH);
         }
         if (sounds.getBoolean("Player Killed.Enabled").orElse(false)) {
-            playerKilled = new PlayableRichSound(sounds.getConfigurationSection("Player Killed"));
+            playerKilled = new PlayableRichSound(sounds.getConfigurationSection("Player Killed"), RichSound.Priority.HIGH);
         }
     }
 
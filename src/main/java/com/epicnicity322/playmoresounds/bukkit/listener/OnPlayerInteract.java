@@ -236,8 +236,8 @@ public class OnPlayerInteract implements Listener
                         event.setUseItemInHand(Event.Result.DENY);
 
                         if (!player.hasPermission("playmoresounds.region.select.overlap")) {
-                            if (RegionManager.getRegions().stream().anyMatch(region ->
-                                    !Objects.equals(region.getCreator(), player.getUniqueId()) && region.isInside(clicked))) {
+                            if (RegionManager.getRegionsAt(clicked).stream().anyMatch(region ->
+                                    !Objects.equals(region.getCreator(), player.getUniqueId()))) {
                                 lang.send(player, lang.get("Region.Select.Error.Overlap"));
                                 return;
                             }
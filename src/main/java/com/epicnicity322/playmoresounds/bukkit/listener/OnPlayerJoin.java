@@ -20,16 +20,15 @@ package com.epicnicity322.playmoresounds.bukkit.listener;
 
 import com.epicnicity322.epicpluginlib.bukkit.lang.MessageSender;
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
-import com.epicnicity322.playmoresounds.bukkit.region.RegionManager;
-import com.epicnicity322.playmoresounds.bukkit.region.events.RegionEnterEvent;
+import com.epicnicity322.playmoresounds.bukkit.region.RegionMembership;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
 import com.epicnicity322.playmoresounds.bukkit.sound.SoundManager;
 import com.epicnicity322.playmoresounds.bukkit.util.UpdateManager;
 import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
+import com.epicnicity322.playmoresounds.core.sound.RichSound;
 import com.epicnicity322.yamlhandler.Configuration;
 import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -48,12 +47,12 @@ public final class OnPlayerJoin implements Listener
             Configuration sounds = Configurations.SOUNDS.getConfigurationHolder().getConfiguration();
 
             if (sounds.getBoolean("First Join.Enabled").orElse(false))
-                firstJoin = new PlayableRichSound(sounds.getConfigurationSection("First Join"));
+                firstJoin = new PlayableRichSound(sounds.getConfigurationSection("First Join"), RichSound.Priority.HIGH);
             else
                 firstJoin = null;
 
             if (sounds.getBoolean("Join Server.Enabled").orElse(false))
-                joinServer = new PlayableRichSound(sounds.getConfigurationSection("Join Server"));
+                joinServer = new PlayableRichSound(sounds.getConfigurationSection("Join Server"), RichSound.Priority.HIGH);
             else
                 joinServer = null;
         };
@@ -74,7 +73,6 @@ public final class OnPlayerJoin implements Listener
     public void onPlayerJoin(PlayerJoinEvent event)
     {
         Player player = event.getPlayer();
-        Location location = player.getLocation();
 
         // Playing join sound
         if (player.hasPlayedBefore()) {
@@ -92,10 +90,7 @@ public final class OnPlayerJoin implements Listener
             SoundManager.toggleSoundsState(player, true);
 
         // Calling region enter events.
-        RegionManager.getRegions().stream().filter(region -> region.isInside(location)).forEach(region -> {
-            RegionEnterEvent regionEnterEvent = new RegionEnterEvent(region, player, location, location);
-            Bukkit.getPluginManager().callEvent(regionEnterEvent);
-        });
+        RegionMembership.join(player);
 
         // Setting the player's resource pack.
         if (VersionUtils.supportsResourcePacks()) {
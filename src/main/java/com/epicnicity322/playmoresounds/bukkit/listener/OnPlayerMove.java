@@ -20,17 +20,14 @@ package com.epicnicity322.playmoresounds.bukkit.listener;
 
 import com.epicnicity322.epicpluginlib.core.config.ConfigurationHolder;
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
-import com.epicnicity322.playmoresounds.bukkit.region.RegionManager;
-import com.epicnicity322.playmoresounds.bukkit.region.SoundRegion;
-import com.epicnicity322.playmoresounds.bukkit.region.events.RegionEnterEvent;
-import com.epicnicity322.playmoresounds.bukkit.region.events.RegionLeaveEvent;
+import com.epicnicity322.playmoresounds.bukkit.region.RegionMembership;
+import com.epicnicity322.playmoresounds.bukkit.sound.EnterLeaveSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
-import com.epicnicity322.playmoresounds.bukkit.sound.SoundManager;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundLoops;
+import com.epicnicity322.playmoresounds.bukkit.sound.StopOnExit;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
-import com.epicnicity322.playmoresounds.core.sound.SoundType;
 import com.epicnicity322.yamlhandler.Configuration;
 import com.epicnicity322.yamlhandler.ConfigurationSection;
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.block.Biome;
 import org.bukkit.entity.Player;
@@ -39,46 +36,54 @@ import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerMoveEvent;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Map;
 import java.util.UUID;
 
 public final class OnPlayerMove implements Listener
 {
     private static final @NotNull ConfigurationHolder biomes = Configurations.BIOMES.getConfigurationHolder();
-    private static final @NotNull HashMap<UUID, BukkitRunnable> biomesInLoop = new HashMap<>();
-    private static final @NotNull HashMap<String, HashSet<String>> soundsToStop = new HashMap<>();
+    private static final @NotNull HashMap<UUID, SoundLoops.Loop> biomesInLoop = new HashMap<>();
+    // The biome each player was on when their last move or sample was checked, so loops don't look up the biome.
+    private static final @NotNull HashMap<UUID, Biome> currentBiomes = new HashMap<>();
+    // The sounds of each biome on biomes.yml by world and biome name, compiled when the configuration is loaded.
+    private static @NotNull HashMap<String, EnterLeaveSounds> biomeSounds = new HashMap<>();
 
     static {
-        PlayMoreSounds.onDisable(() -> biomesInLoop.entrySet().removeIf(entry -> {
-            entry.getValue().cancel();
-            return true;
-        }));
+        Runnable biomeSoundsUpdater = () -> {
+            HashMap<String, EnterLeaveSounds> biomeSounds = new HashMap<>();
+
+            for (Map.Entry<String, Object> world : biomes.getConfiguration().getNodes().entrySet()) {
+                if (!(world.getValue() instanceof ConfigurationSection)) continue;
+
+                for (Map.Entry<String, Object> biome : ((ConfigurationSection) world.getValue()).getNodes().entrySet()) {
+                    if (!(biome.getValue() instanceof ConfigurationSection)) continue;
+
+                    EnterLeaveSounds compiled = EnterLeaveSounds.biome((ConfigurationSection) biome.getValue());
+
+                    if (!compiled.isEmpty()) biomeSounds.put(world.getKey() + '.' + biome.getKey(), compiled);
+                }
+            }
+
+            OnPlayerMove.biomeSounds = biomeSounds;
+        };
+
+        biomeSoundsUpdater.run();
+        PlayMoreSounds.onReload(biomeSoundsUpdater);
+        PlayMoreSounds.onDisable(() -> {
+            biomesInLoop.entrySet().removeIf(entry -> {
+                entry.getValue().cancel();
+                return true;
+            });
+            currentBiomes.clear();
+        });
     }
 
     protected static void callRegionEnterLeaveEvents(Cancellable event, Player player, Location from, Location to)
     {
-        for (SoundRegion region : RegionManager.getRegions()) {
-            boolean isInFrom = region.isInside(from);
-            boolean isInTo = region.isInside(to);
-
-            if (isInFrom && !isInTo) {
-                RegionLeaveEvent regionLeaveEvent = new RegionLeaveEvent(region, player, from, to);
-                Bukkit.getPluginManager().callEvent(regionLeaveEvent);
-
-                if (regionLeaveEvent.isCancelled())
-                    event.setCancelled(true);
-            } else if (!isInFrom && isInTo) {
-                RegionEnterEvent regionEnterEvent = new RegionEnterEvent(region, player, from, to);
-                Bukkit.getPluginManager().callEvent(regionEnterEvent);
-
-                if (regionEnterEvent.isCancelled())
-                    event.setCancelled(true);
-            }
-        }
+        RegionMembership.move(event, player, from, to);
     }
 
     protected static void checkBiomeEnterLeaveSounds(Cancellable event, Player player, Location from, Location to)
@@ -91,98 +96,77 @@ public final class OnPlayerMove implements Listener
             Biome toBiome = to.getBlock().getBiome();
 
             if (fromBiome != toBiome) {
-                soundsToStop.entrySet().removeIf(entry -> {
-                    String key = entry.getKey();
-
-                    if (key.startsWith(player.getUniqueId().toString())) {
-                        long delay = Long.parseLong(key.substring(key.indexOf(";") + 1));
-
-                        SoundManager.stopSounds(player, entry.getValue(), delay);
-                        return true;
-                    }
-
-                    return false;
-                });
+                // Any biome change stops the sounds of the previous biome.
+                StopOnExit.stop(player, OnPlayerMove.class, null);
 
                 UUID key = player.getUniqueId();
 
+                currentBiomes.put(key, toBiome);
+
                 if (biomesInLoop.containsKey(key)) {
                     biomesInLoop.get(key).cancel();
                     biomesInLoop.remove(key);
                 }
 
-                ConfigurationSection loop = biomesConfiguration.getConfigurationSection(to.getWorld().getName() + '.' + toBiome.name() + ".Loop");
-                ConfigurationSection leave = biomesConfiguration.getConfigurationSection(from.getWorld().getName() + '.' + fromBiome.name() + ".Leave");
-                boolean playEnterSound = true;
-
-                if (loop != null) {
-                    PlayableRichSound loopSound = new PlayableRichSound(loop);
+                String toKey = to.getWorld().getName() + '.' + toBiome.name();
+                EnterLeaveSounds toSounds = biomeSounds.get(toKey);
+                EnterLeaveSounds fromSounds = biomeSounds.get(from.getWorld().getName() + '.' + fromBiome.name());
 
-                    if (loopSound.isEnabled() && (!event.isCancelled() || !loopSound.isCancellable())) {
-                        long delay = loop.getNumber("Delay").orElse(0).longValue();
-                        long period = loop.getNumber("Period").orElse(0).longValue();
+                if (toSounds != null) {
+                    PlayableRichSound loopSound = toSounds.getLoop();
+                    boolean playEnterSound = true;
 
-                        biomesInLoop.put(key, loopSound.playInLoop(player, player::getLocation, delay, period, () -> {
-                            Configuration updatedBiomes = biomes.getConfiguration();
+                    if (loopSound != null && (!event.isCancelled() || !loopSound.isCancellable())) {
+                        // The loop stops if a reload disables it.
+                        biomesInLoop.put(key, loopSound.loop(player, player::getLocation, toSounds.getLoopDelay(), toSounds.getLoopPeriod(), () ->
+                                !hasLoop(toKey) || !player.isOnline() || !player.getWorld().equals(to.getWorld())
+                                        || currentBiomes.get(key) != toBiome));
 
-                            return !updatedBiomes.getBoolean(loop.getPath() + ".Enabled").orElse(false)
-                                    || !player.isOnline() || !player.getWorld().equals(to.getWorld())
-                                    || player.getLocation().getBlock().getBiome() != toBiome;
-                        }));
+                        StopOnExit.track(player, OnPlayerMove.class, null, toSounds.getLoopStopOnExit());
 
-                        stopOnExit(player, loop);
-
-                        if (loop.getBoolean("Prevent Enter Sound").orElse(false))
+                        if (toSounds.isLoopPreventingEnterSound())
                             playEnterSound = false;
                     }
-                }
-
-                if (playEnterSound) {
-                    ConfigurationSection enter = biomesConfiguration.getConfigurationSection(to.getWorld().getName() + '.' + toBiome.name() + ".Enter");
-
-                    if (enter != null) {
-                        PlayableRichSound enterSound = new PlayableRichSound(enter);
 
-                        if (!event.isCancelled() || !enterSound.isCancellable()) {
-                            enterSound.play(player);
+                    PlayableRichSound enterSound = toSounds.getEnter();
 
-                            if (enterSound.isEnabled())
-                                stopOnExit(player, enter);
-                        }
+                    if (playEnterSound && enterSound != null && (!event.isCancelled() || !enterSound.isCancellable())) {
+                        enterSound.play(player);
+                        StopOnExit.track(player, OnPlayerMove.class, null, toSounds.getEnterStopOnExit());
                     }
                 }
 
-                if (leave != null) {
-                    PlayableRichSound leaveSound = new PlayableRichSound(leave);
+                PlayableRichSound leaveSound = fromSounds == null ? null : fromSounds.getLeave();
 
-                    if (!event.isCancelled() || !leaveSound.isCancellable())
-                        leaveSound.play(player);
-                }
+                if (leaveSound != null && (!event.isCancelled() || !leaveSound.isCancellable()))
+                    leaveSound.play(player);
             }
         }
     }
 
-    private static void stopOnExit(Player player, ConfigurationSection section)
+    static void quit(@NotNull Player player)
     {
-        if (section.getBoolean("Stop On Exit.Enabled").orElse(false)) {
-            String key = player.getUniqueId() + ";" + section.getNumber("Stop On Exit.Delay").orElse(0);
-            HashSet<String> sounds = soundsToStop.getOrDefault(key, new HashSet<>());
-            ConfigurationSection soundsSection = section.getConfigurationSection("Sounds");
+        UUID key = player.getUniqueId();
+        SoundLoops.Loop loop = biomesInLoop.remove(key);
 
-            if (soundsSection != null)
-                for (String sound : soundsSection.getNodes().keySet()) {
-                    String soundToStop = soundsSection.getString(sound + ".Sound").orElse("");
+        if (loop != null) loop.cancel();
 
-                    sounds.add(SoundType.getPresentSoundNames().contains(soundToStop) ? SoundType.valueOf(soundToStop).getSound().orElse("") : soundToStop);
-                }
+        currentBiomes.remove(key);
+    }
 
-            soundsToStop.put(key, sounds);
-        }
+    private static boolean hasLoop(@NotNull String biomeKey)
+    {
+        EnterLeaveSounds sounds = biomeSounds.get(biomeKey);
+
+        return sounds != null && sounds.getLoop() != null;
     }
 
     @EventHandler(priority = EventPriority.HIGH)
     public void onPlayerMove(PlayerMoveEvent event)
     {
+        // Region and biome changes are checked by MovementSampler instead.
+        if (MovementSampler.isEnabled()) return;
+
         Location from = event.getFrom();
         Location to = event.getTo();
 
@@ -196,4 +180,11 @@ public final class OnPlayerMove implements Listener
             checkBiomeEnterLeaveSounds(event, player, from, to);
         }
     }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerMoveMonitor(PlayerMoveEvent event)
+    {
+        // Other plugins might have cancelled the move after the region events were called.
+        RegionMembership.confirm(event.getPlayer(), event.isCancelled());
+    }
 }
@@ -19,13 +19,12 @@
 package com.epicnicity322.playmoresounds.bukkit.listener;
 
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
-import com.epicnicity322.playmoresounds.bukkit.region.RegionManager;
-import com.epicnicity322.playmoresounds.bukkit.region.events.RegionLeaveEvent;
+import com.epicnicity322.playmoresounds.bukkit.region.RegionMembership;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundScheduler;
+import com.epicnicity322.playmoresounds.bukkit.sound.StopOnExit;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
 import com.epicnicity322.yamlhandler.Configuration;
-import org.bukkit.Bukkit;
-import org.bukkit.Location;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.Listener;
@@ -61,12 +60,13 @@ public final class OnPlayerQuit implements Listener
     public void onPlayerQuit(PlayerQuitEvent event)
     {
         Player player = event.getPlayer();
-        Location location = player.getLocation();
 
-        RegionManager.getRegions().stream().filter(region -> region.isInside(location)).forEach(region -> {
-            RegionLeaveEvent regionLeaveEvent = new RegionLeaveEvent(region, player, location, location);
-            Bukkit.getPluginManager().callEvent(regionLeaveEvent);
-        });
+        RegionMembership.quit(player);
+        MovementSampler.quit(player);
+        OnPlayerMove.quit(player);
+        SoundScheduler.cancel(player);
+        // Sounds that were not stopped by leaving a region are not going to be stopped anymore.
+        StopOnExit.forget(player);
 
         if (player.isBanned()) {
             if (playerBan != null) playerBan.play(player);
@@ -19,6 +19,7 @@
 package com.epicnicity322.playmoresounds.bukkit.listener;
 
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.bukkit.region.RegionMembership;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
 import com.epicnicity322.yamlhandler.Configuration;
@@ -70,6 +71,10 @@ public final class OnPlayerTeleport implements Listener
     public void onPlayerTeleport(PlayerTeleportEvent event)
     {
         Player player = event.getPlayer();
+
+        // The player is going back to where they were before a sampled move that was cancelled.
+        if (MovementSampler.isReverting(player)) return;
+
         Location from = event.getFrom();
         Location to = event.getTo();
 
@@ -95,4 +100,13 @@ public final class OnPlayerTeleport implements Listener
                     teleport.play(player);
             });
     }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerTeleportMonitor(PlayerTeleportEvent event)
+    {
+        // Other plugins might have cancelled the teleport after the region events were called.
+        RegionMembership.confirm(event.getPlayer(), event.isCancelled());
+
+        if (!event.isCancelled()) MovementSampler.moved(event.getPlayer(), event.getTo());
+    }
 }
@@ -20,14 +20,16 @@ package com.epicnicity322.playmoresounds.bukkit.listener;
 
 import com.epicnicity322.epicpluginlib.core.util.ObjectUtils;
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
-import com.epicnicity322.playmoresounds.bukkit.region.RegionManager;
+import com.epicnicity322.playmoresounds.bukkit.region.RegionMembership;
 import com.epicnicity322.playmoresounds.bukkit.region.SoundRegion;
 import com.epicnicity322.playmoresounds.bukkit.region.events.RegionEnterEvent;
 import com.epicnicity322.playmoresounds.bukkit.region.events.RegionLeaveEvent;
+import com.epicnicity322.playmoresounds.bukkit.sound.EnterLeaveSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.PlayableRichSound;
-import com.epicnicity322.playmoresounds.bukkit.sound.SoundManager;
+import com.epicnicity322.playmoresounds.bukkit.sound.SoundLoops;
+import com.epicnicity322.playmoresounds.bukkit.sound.StopOnExit;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
-import com.epicnicity322.playmoresounds.core.sound.SoundType;
+import com.epicnicity322.playmoresounds.core.sound.RichSound;
 import com.epicnicity322.yamlhandler.Configuration;
 import com.epicnicity322.yamlhandler.ConfigurationSection;
 import org.bukkit.Bukkit;
@@ -35,31 +37,35 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.HandlerList;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
+import java.util.UUID;
 
 public final class OnRegionEnterLeave extends PMSListener
 {
     private final @NotNull PlayMoreSounds plugin;
-    private final @NotNull HashMap<String, BukkitRunnable> regionsInLoop = new HashMap<>();
-    private final @NotNull HashMap<String, HashSet<String>> soundsToStop = new HashMap<>();
+    // The loops of each player by region id.
+    private final @NotNull HashMap<UUID, HashMap<UUID, SoundLoops.Loop>> regionsInLoop = new HashMap<>();
+    // The sounds of each region on regions.yml by region name, compiled when the listener is loaded.
+    private @NotNull HashMap<String, EnterLeaveSounds> regionSounds = new HashMap<>();
     private @Nullable PlayableRichSound regionEnterSound = null;
     private @Nullable PlayableRichSound regionLeaveSound = null;
+    private @Nullable StopOnExit regionEnterStopOnExit = null;
 
     public OnRegionEnterLeave(@NotNull PlayMoreSounds plugin)
     {
         super(plugin);
         this.plugin = plugin;
 
-        PlayMoreSounds.onDisable(() -> regionsInLoop.entrySet().removeIf(entry -> {
-            entry.getValue().cancel();
-            return true;
-        }));
+        PlayMoreSounds.onDisable(() -> {
+            for (HashMap<UUID, SoundLoops.Loop> loops : regionsInLoop.values())
+                for (SoundLoops.Loop loop : loops.values()) loop.cancel();
+
+            regionsInLoop.clear();
+        });
     }
 
     @Override
@@ -77,30 +83,35 @@ public final class OnRegionEnterLeave extends PMSListener
         ConfigurationSection regionLeaveSection = sounds.getConfigurationSection("Region Leave");
         ConfigurationSection defaultSection = ObjectUtils.getOrDefault(regionEnterSection, regionLeaveSection);
         ConfigurationSection regionsYAMLSection = regions.getConfigurationSection("PlayMoreSounds");
-        boolean load = !soundsToStop.isEmpty();
+        HashMap<String, EnterLeaveSounds> regionSounds = new HashMap<>();
+        boolean load = StopOnExit.isTracking(this);
 
         if (!load)
             if (defaultSection != null)
                 load = defaultSection.getBoolean("Enabled").orElse(false);
 
-        if (!load) {
-            if (regionsYAMLSection != null) {
-                for (Map.Entry<String, Object> section : regionsYAMLSection.getAbsoluteNodes().entrySet()) {
-                    if (section.getKey().endsWith("Enabled")) {
-                        if (section.getValue() == Boolean.TRUE) {
-                            load = true;
-                            break;
-                        }
-                    }
-                }
+        if (regionsYAMLSection != null) {
+            for (Map.Entry<String, Object> node : regionsYAMLSection.getNodes().entrySet()) {
+                if (!(node.getValue() instanceof ConfigurationSection)) continue;
+
+                EnterLeaveSounds compiled = EnterLeaveSounds.region((ConfigurationSection) node.getValue());
+
+                if (compiled.isEmpty()) continue;
+
+                regionSounds.put(node.getKey(), compiled);
+                load = true;
             }
         }
 
+        this.regionSounds = regionSounds;
+
         if (load) {
-            if (regionEnterSection != null)
-                regionEnterSound = new PlayableRichSound(regionEnterSection);
+            if (regionEnterSection != null) {
+                regionEnterSound = new PlayableRichSound(regionEnterSection, RichSound.Priority.HIGH);
+                regionEnterStopOnExit = regionEnterSound.isEnabled() ? StopOnExit.of(regionEnterSection) : null;
+            }
             if (regionLeaveSection != null)
-                regionLeaveSound = new PlayableRichSound(regionLeaveSection);
+                regionLeaveSound = new PlayableRichSound(regionLeaveSection, RichSound.Priority.HIGH);
 
             if (!isLoaded()) {
                 Bukkit.getPluginManager().registerEvents(this, plugin);
@@ -118,61 +129,43 @@ public final class OnRegionEnterLeave extends PMSListener
     public void onRegionEnter(RegionEnterEvent event)
     {
         Player player = event.getPlayer();
-        ConfigurationSection regions = Configurations.REGIONS.getConfigurationHolder().getConfiguration()
-                .getConfigurationSection("PlayMoreSounds");
         SoundRegion region = event.getRegion();
+        EnterLeaveSounds sounds = regionSounds.get(region.getName());
         boolean defaultSound = true;
 
-        String key = region.getId() + ";" + player.getUniqueId();
+        cancelLoop(player, region);
 
-        if (regionsInLoop.containsKey(key)) {
-            regionsInLoop.get(key).cancel();
-            regionsInLoop.remove(key);
-        }
-
-        if (regions != null) {
-            ConfigurationSection loop = regions.getConfigurationSection(region.getName() + ".Loop");
+        if (sounds != null) {
             boolean playEnterSound = true;
+            PlayableRichSound loopSound = sounds.getLoop();
 
-            if (loop != null) {
-                PlayableRichSound loopSound = new PlayableRichSound(loop);
-
-                if (loopSound.isEnabled() && (!event.isCancelled() || !loopSound.isCancellable())) {
-                    long delay = loop.getNumber("Delay").orElse(0).longValue();
-                    long period = loop.getNumber("Period").orElse(0).longValue();
-
-                    regionsInLoop.put(key, loopSound.playInLoop(player, player::getLocation, delay, period, () -> {
-                        Configuration updatedRegions = Configurations.REGIONS.getConfigurationHolder().getConfiguration();
+            if (loopSound != null && (!event.isCancelled() || !loopSound.isCancellable())) {
+                regionsInLoop.computeIfAbsent(player.getUniqueId(), uuid -> new HashMap<>(4)).put(region.getId(), loopSound.loop(player, player::getLocation, sounds.getLoopDelay(), sounds.getLoopPeriod(), () -> {
+                    // Stopping if the loop was disabled on a reload.
+                    EnterLeaveSounds updatedSounds = regionSounds.get(region.getName());
 
-                        return !updatedRegions.getBoolean("PlayMoreSounds." + region.getName() + ".Loop.Enabled").orElse(false)
-                                || !RegionManager.getRegions().contains(region) || !player.isOnline() || !region.isInside(player.getLocation());
-                    }));
+                    return updatedSounds == null || updatedSounds.getLoop() == null
+                            || !player.isOnline() || !RegionMembership.isInside(player, region);
+                }));
 
-                    stopOnExit(player, region, loop);
+                StopOnExit.track(player, this, region.getId(), sounds.getLoopStopOnExit());
 
-                    if (loop.getBoolean("Prevent Other Sounds.Default Sound").orElse(false))
-                        defaultSound = false;
-                    if (loop.getBoolean("Prevent Other Sounds.Enter Sound").orElse(false))
-                        playEnterSound = false;
-                }
+                if (sounds.isLoopPreventingDefaultSound())
+                    defaultSound = false;
+                if (sounds.isLoopPreventingEnterSound())
+                    playEnterSound = false;
             }
 
             if (playEnterSound) {
-                ConfigurationSection enter = regions.getConfigurationSection(region.getName() + ".Enter");
-
-                if (enter != null) {
-                    PlayableRichSound enterSound = new PlayableRichSound(enter);
+                PlayableRichSound enterSound = sounds.getEnter();
 
-                    if (enterSound.isEnabled()) {
-                        if (!event.isCancelled() || !enterSound.isCancellable()) {
-                            enterSound.play(player);
+                if (enterSound != null && (!event.isCancelled() || !enterSound.isCancellable())) {
+                    enterSound.play(player);
 
-                            stopOnExit(player, region, enter);
+                    StopOnExit.track(player, this, region.getId(), sounds.getEnterStopOnExit());
 
-                            if (enter.getBoolean("Prevent Default Sound").orElse(false))
-                                defaultSound = false;
-                        }
-                    }
+                    if (sounds.isEnterPreventingDefaultSound())
+                        defaultSound = false;
                 }
             }
         }
@@ -180,9 +173,7 @@ public final class OnRegionEnterLeave extends PMSListener
         if (defaultSound && regionEnterSound != null)
             if (!event.isCancelled() || !regionEnterSound.isCancellable()) {
                 regionEnterSound.play(player);
-
-                if (regionEnterSound.isEnabled())
-                    stopOnExit(player, region, regionEnterSound.getSection());
+                StopOnExit.track(player, this, region.getId(), regionEnterStopOnExit);
             }
     }
 
@@ -191,40 +182,21 @@ public final class OnRegionEnterLeave extends PMSListener
     {
         Player player = event.getPlayer();
         SoundRegion region = event.getRegion();
-        String key = region.getId() + ";" + player.getUniqueId();
-
-        if (regionsInLoop.containsKey(key)) {
-            regionsInLoop.get(key).cancel();
-            regionsInLoop.remove(key);
-        }
+        cancelLoop(player, region);
 
-        soundsToStop.entrySet().removeIf(entry -> {
-            String stopKey = entry.getKey();
-
-            if (stopKey.startsWith(key)) {
-                long delay = Long.parseLong(stopKey.substring(stopKey.lastIndexOf(";") + 1));
-
-                SoundManager.stopSounds(player, entry.getValue(), delay);
-                return true;
-            }
-
-            return false;
-        });
+        StopOnExit.stop(player, this, region.getId());
 
         boolean defaultSound = true;
+        EnterLeaveSounds sounds = regionSounds.get(region.getName());
 
-        ConfigurationSection leave = Configurations.REGIONS.getConfigurationHolder().getConfiguration().getConfigurationSection("PlayMoreSounds." + region.getName() + ".Leave");
-
-        if (leave != null) {
-            PlayableRichSound leaveSound = new PlayableRichSound(leave);
+        if (sounds != null && sounds.getLeave() != null) {
+            PlayableRichSound leaveSound = sounds.getLeave();
 
-            if (leaveSound.isEnabled()) {
-                if (!event.isCancelled() || !leaveSound.isCancellable()) {
-                    leaveSound.play(player);
+            if (!event.isCancelled() || !leaveSound.isCancellable()) {
+                leaveSound.play(player);
 
-                    if (leave.getBoolean("Prevent Default Sound").orElse(false))
-                        defaultSound = false;
-                }
+                if (sounds.isLeavePreventingDefaultSound())
+                    defaultSound = false;
             }
         }
 
@@ -233,24 +205,15 @@ public final class OnRegionEnterLeave extends PMSListener
                 regionLeaveSound.play(player);
     }
 
-    private void stopOnExit(Player player, SoundRegion region, ConfigurationSection section)
+    private void cancelLoop(@NotNull Player player, @NotNull SoundRegion region)
     {
-        if (section.getBoolean("Stop On Exit.Enabled").orElse(false)) {
-            ConfigurationSection soundsSection = section.getConfigurationSection("Sounds");
-            String key = region.getId() + ";" + player.getUniqueId() + ";" + section.getNumber("Stop On Exit.Delay").orElse(0);
-            HashSet<String> sounds = soundsToStop.get(key);
+        HashMap<UUID, SoundLoops.Loop> loops = regionsInLoop.get(player.getUniqueId());
 
-            if (sounds == null)
-                sounds = new HashSet<>();
+        if (loops == null) return;
 
-            if (soundsSection != null)
-                for (String sound : soundsSection.getNodes().keySet()) {
-                    String soundToStop = soundsSection.getString(sound + ".Sound").orElse("");
+        SoundLoops.Loop loop = loops.remove(region.getId());
 
-                    sounds.add(SoundType.getPresentSoundNames().contains(soundToStop) ? SoundType.valueOf(soundToStop).getSound().orElse("") : soundToStop);
-                }
-
-            soundsToStop.put(key, sounds);
-        }
+        if (loop != null) loop.cancel();
+        if (loops.isEmpty()) regionsInLoop.remove(player.getUniqueId());
     }
-}
\ No newline at end of file
+}
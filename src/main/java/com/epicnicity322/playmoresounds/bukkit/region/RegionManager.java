@@ -23,13 +23,18 @@ import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
 import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
 import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
 import com.epicnicity322.playmoresounds.core.config.Configurations;
-import com.epicnicity322.yamlhandler.Configuration;
 import com.epicnicity322.yamlhandler.ConfigurationSection;
-import com.epicnicity322.yamlhandler.YamlConfigurationLoader;
+import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
+import org.bukkit.World;
 import org.bukkit.enchantments.Enchantment;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
 import org.bukkit.inventory.ItemFlag;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.ItemMeta;
@@ -37,43 +42,17 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Collections;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.stream.Stream;
+import java.util.*;
 
 public final class RegionManager
 {
-    private static final @NotNull YamlConfigurationLoader loader = new YamlConfigurationLoader();
-    private static final @NotNull Path regionsFolder = PlayMoreSoundsCore.getFolder().resolve("Data").resolve("Regions");
-    private static final @NotNull Runnable regionUpdater;
     private static final @NotNull Runnable wandUpdater;
-    private static final @NotNull HashSet<SoundRegion> regions = new HashSet<>();
-    private static @NotNull Set<SoundRegion> unmodifiableRegions = new HashSet<>();
+    private static volatile @NotNull RegionSnapshot snapshot = RegionSnapshot.EMPTY;
+    // Incremented on every save or delete, so a snapshot built off-thread is not published over newer changes.
+    private static int modifications = 0;
     private static ItemStack wand;
 
     static {
-        regionUpdater = () -> {
-            regions.clear();
-
-            if (Files.exists(regionsFolder)) {
-                try (Stream<Path> regionFiles = Files.list(regionsFolder)) {
-                    regionFiles.forEach(regionFile -> {
-                        try {
-                            regions.add(new SoundRegion(loader.load(regionFile)));
-                        } catch (Exception ignored) {
-                            // Ignoring files that aren't considered valid regions.
-                        }
-                    });
-                } catch (IOException ignored) {
-                }
-            }
-
-            unmodifiableRegions = Collections.unmodifiableSet(regions);
-        };
-
         wandUpdater = () -> {
             String material = null;
 
@@ -104,8 +83,10 @@ public final class RegionManager
             }
         };
 
-        regionUpdater.run();
-        PlayMoreSounds.onReload(regionUpdater);
+        loadRegions();
+        RegionMembership.refresh();
+        PlayMoreSounds.onReload(RegionManager::loadRegionsAsync);
+        PlayMoreSounds.onEnable(() -> Bukkit.getPluginManager().registerEvents(new WorldListener(), PlayMoreSounds.getInstance()));
         PlayMoreSounds.onReload(wandUpdater);
         PlayMoreSounds.onEnable(wandUpdater);
     }
@@ -114,15 +95,104 @@ public final class RegionManager
     {
     }
 
+    private static @NotNull Map<UUID, World> getLoadedWorlds()
+    {
+        HashMap<UUID, World> worlds = new HashMap<>();
+
+        for (World world : Bukkit.getWorlds()) worlds.put(world.getUID(), world);
+
+        return worlds;
+    }
+
+    private static @NotNull RegionSnapshot buildSnapshot(@NotNull Map<UUID, World> worlds)
+    {
+        ArrayList<SoundRegion> loaded = new ArrayList<>();
+
+        for (RegionStore.Record record : RegionStore.load()) {
+            World world = worlds.get(record.world);
+
+            // Regions on worlds that are not loaded are kept on the store, but not added to the registry.
+            if (world == null) continue;
+
+            try {
+                loaded.add(record.toRegion(world));
+            } catch (Exception ignored) {
+                // Ignoring records that aren't considered valid regions.
+            }
+        }
+
+        return new RegionSnapshot(loaded);
+    }
+
+    private static void loadRegions()
+    {
+        RegionSnapshot loaded = buildSnapshot(getLoadedWorlds());
+
+        synchronized (RegionManager.class) {
+            snapshot = loaded;
+        }
+    }
+
+    /**
+     * Builds the new registry off the main thread, so reloading does not stall the server while the store is read.
+     * Lookups keep using the previous snapshot until the new one is published.
+     */
+    private static void loadRegionsAsync()
+    {
+        PlayMoreSounds plugin = PlayMoreSounds.getInstance();
+
+        if (plugin == null || !plugin.isEnabled()) {
+            loadRegions();
+            RegionMembership.refresh();
+            return;
+        }
+
+        Map<UUID, World> worlds = getLoadedWorlds();
+        int expectedModifications;
+
+        synchronized (RegionManager.class) {
+            expectedModifications = modifications;
+        }
+
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            RegionSnapshot loaded = buildSnapshot(worlds);
+
+            synchronized (RegionManager.class) {
+                // A region was saved or deleted while loading, building again so the change is not lost.
+                if (modifications != expectedModifications) {
+                    Bukkit.getScheduler().runTask(plugin, RegionManager::loadRegionsAsync);
+                    return;
+                }
+
+                snapshot = loaded;
+            }
+
+            Bukkit.getScheduler().runTask(plugin, RegionMembership::refresh);
+        });
+    }
+
     /**
      * Gets all regions saved in PlayMoreSounds' data folder based on the last time PlayMoreSounds was enabled or reloaded
-     * by {@link PlayMoreSounds#reload()}.
+     * by {@link PlayMoreSounds#reload()}. Only regions on loaded worlds are present, regions of other worlds are added
+     * when their world loads.
      *
      * @return An unmodifiable set of PlayMoreSounds' regions.
      */
     public static @NotNull Set<SoundRegion> getRegions()
     {
-        return unmodifiableRegions;
+        return snapshot.getRegions();
+    }
+
+    /**
+     * Gets the regions that are inside the location. Only the regions on the chunk of the location are checked, so
+     * this is much faster than checking every region of {@link #getRegions()}.
+     *
+     * @param location The location to get the regions.
+     * @return The regions inside this location.
+     */
+    public static @NotNull List<SoundRegion> getRegionsAt(@NotNull Location location)
+    {
+        return snapshot.getRegionsAt(location);
     }
 
     /**
@@ -139,50 +209,33 @@ public final class RegionManager
     }
 
     /**
-     * Saves a {@link SoundRegion} in PlayMoreSounds' data folder. If another region with the same {@link java.util.UUID}
-     * was found there, it is deleted and replaced by this one.
+     * Saves a {@link SoundRegion} in PlayMoreSounds' region store. If another region with the same {@link java.util.UUID}
+     * was found there, it is replaced by this one.
      * <p>
-     * Regions saved by this method are automatically added to {@link #getRegions()}.
+     * Regions saved by this method are automatically added to {@link #getRegions()}. The region's data is copied
+     * immediately and written to the disk asynchronously.
      *
      * @param region The region to save.
      * @throws IllegalArgumentException If region is a sub-class of {@link SoundRegion}.
      */
     public static void save(@NotNull SoundRegion region) throws IOException
     {
-        delete(region);
-
-        Configuration data = new Configuration(loader);
-
-        data.set("Name", region.getName());
-        data.set("World", region.getMaxDiagonal().getWorld().getUID().toString());
-
-        if (region.getCreator() != null)
-            data.set("Creator", region.getCreator().toString());
-
-        data.set("Creation Date", region.getCreationDate().toString());
-
-        if (region.getDescription() != null)
-            data.set("Description", region.getDescription());
-
-        Location maxDiagonal = region.getMaxDiagonal();
-        Location minDiagonal = region.getMinDiagonal();
-
-        data.set("Diagonals.First.X", maxDiagonal.getBlockX());
-        data.set("Diagonals.First.Y", maxDiagonal.getBlockY());
-        data.set("Diagonals.First.Z", maxDiagonal.getBlockZ());
-        data.set("Diagonals.Second.X", minDiagonal.getBlockX());
-        data.set("Diagonals.Second.Y", minDiagonal.getBlockY());
-        data.set("Diagonals.Second.Z", minDiagonal.getBlockZ());
+        if (region.getClass() != SoundRegion.class)
+            throw new IllegalArgumentException("Region is a sub-class of SoundRegion.");
 
-        data.save(regionsFolder.resolve(region.getId() + ".yml"));
-        regions.add(region);
-        unmodifiableRegions = Collections.unmodifiableSet(regions);
+        // Not using delete, players inside a region that is being renamed or redefined are still inside it.
+        synchronized (RegionManager.class) {
+            RegionStore.save(region);
+            snapshot = snapshot.with(region);
+            ++modifications;
+        }
     }
 
     /**
-     * Removes the data of this region on PlayMoreSounds' data folder, if it exists.
+     * Removes the data of this region on PlayMoreSounds' region store, if it exists.
      * <p>
-     * Regions deleted by this method are automatically removed from {@link #getRegions()}.
+     * Regions deleted by this method are automatically removed from {@link #getRegions()}. The deletion is written to
+     * the disk asynchronously.
      *
      * @param region The region to delete.
      * @throws IllegalArgumentException If region is a sub-class of {@link SoundRegion}.
@@ -192,10 +245,13 @@ public final class RegionManager
         if (region.getClass() != SoundRegion.class)
             throw new IllegalArgumentException("Region is a sub-class of SoundRegion.");
 
-        Files.deleteIfExists(regionsFolder.resolve(region.getId() + ".yml"));
+        synchronized (RegionManager.class) {
+            RegionStore.delete(region.getId());
+            snapshot = snapshot.without(region);
+            ++modifications;
+        }
 
-        if (regions.remove(region))
-            unmodifiableRegions = Collections.unmodifiableSet(regions);
+        RegionMembership.remove(region);
     }
 
     /**
@@ -204,7 +260,65 @@ public final class RegionManager
      */
     public static void reload()
     {
-        regionUpdater.run();
+        loadRegions();
+        RegionMembership.refresh();
         wandUpdater.run();
     }
+
+    /**
+     * Adds the stored regions of a world that was loaded after the regions, so they don't need a reload to be found.
+     */
+    private static void loadWorld(@NotNull World world)
+    {
+        ArrayList<SoundRegion> loaded = new ArrayList<>();
+
+        for (RegionStore.Record record : RegionStore.getRecords(world.getUID())) {
+            try {
+                loaded.add(record.toRegion(world));
+            } catch (Exception ignored) {
+                // Ignoring records that aren't considered valid regions.
+            }
+        }
+
+        if (loaded.isEmpty()) return;
+
+        synchronized (RegionManager.class) {
+            snapshot = snapshot.withAll(loaded);
+            ++modifications;
+        }
+    }
+
+    /**
+     * Removes the regions of a world that is being unloaded from the registry. They are kept on the store and added
+     * again when the world loads.
+     */
+    private static void unloadWorld(@NotNull World world)
+    {
+        List<SoundRegion> unloaded;
+
+        synchronized (RegionManager.class) {
+            RegionSnapshot current = snapshot;
+
+            unloaded = current.getRegions(world.getUID());
+            snapshot = current.withoutWorld(world.getUID());
+            ++modifications;
+        }
+
+        for (SoundRegion region : unloaded) RegionMembership.remove(region);
+    }
+
+    private static final class WorldListener implements Listener
+    {
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onWorldLoad(WorldLoadEvent event)
+        {
+            loadWorld(event.getWorld());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onWorldUnload(WorldUnloadEvent event)
+        {
+            unloadWorld(event.getWorld());
+        }
+    }
 }
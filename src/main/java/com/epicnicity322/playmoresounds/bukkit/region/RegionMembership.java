@@ -0,0 +1,223 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.region;
+
+import com.epicnicity322.playmoresounds.bukkit.region.events.RegionEnterEvent;
+import com.epicnicity322.playmoresounds.bukkit.region.events.RegionLeaveEvent;
+import com.epicnicity322.playmoresounds.bukkit.util.UniversalVersionMethods;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Keeps the regions each online player is inside. When a player moves, only the regions they are already in and the
+ * regions on the chunk they are moving to are checked, and {@link RegionEnterEvent} and {@link RegionLeaveEvent} are
+ * called only for the regions that changed.
+ * <p>
+ * Membership is only changed on the main thread, by PlayMoreSounds' join, quit, move and teleport listeners.
+ */
+public final class RegionMembership
+{
+    private static final @NotNull HashMap<UUID, Membership> memberships = new HashMap<>();
+
+    private RegionMembership()
+    {
+    }
+
+    /**
+     * Gets the regions the player is inside, as of their last move.
+     *
+     * @param player The player to get the regions.
+     * @return An unmodifiable list of the regions the player is inside.
+     */
+    public static @NotNull List<SoundRegion> getRegions(@NotNull Player player)
+    {
+        Membership membership = memberships.get(player.getUniqueId());
+
+        return membership == null ? Collections.emptyList() : Collections.unmodifiableList(membership.regions);
+    }
+
+    /**
+     * Checks if the player is inside the region without testing the player's location against the region's bounds.
+     *
+     * @param player The player to check.
+     * @param region The region to check.
+     * @return If the player was inside the region as of their last move.
+     */
+    public static boolean isInside(@NotNull Player player, @NotNull SoundRegion region)
+    {
+        Membership membership = memberships.get(player.getUniqueId());
+
+        return membership != null && membership.regions.contains(region);
+    }
+
+    /**
+     * Puts the player in the regions of their location, calling {@link RegionEnterEvent} for each one.
+     *
+     * @param player The player who joined.
+     */
+    public static void join(@NotNull Player player)
+    {
+        Location location = player.getLocation();
+        List<SoundRegion> regions = RegionManager.getRegionsAt(location);
+
+        memberships.put(player.getUniqueId(), new Membership(new ArrayList<>(regions)));
+
+        for (SoundRegion region : regions)
+            Bukkit.getPluginManager().callEvent(new RegionEnterEvent(region, player, location, location));
+    }
+
+    /**
+     * Removes the player from all their regions, calling {@link RegionLeaveEvent} for each one.
+     *
+     * @param player The player who quit.
+     */
+    public static void quit(@NotNull Player player)
+    {
+        Membership membership = memberships.remove(player.getUniqueId());
+
+        if (membership == null) return;
+
+        Location location = player.getLocation();
+
+        for (SoundRegion region : membership.regions)
+            Bukkit.getPluginManager().callEvent(new RegionLeaveEvent(region, player, location, location));
+    }
+
+    /**
+     * Updates the regions of a player who is moving, calling {@link RegionLeaveEvent} for the regions they are leaving
+     * and {@link RegionEnterEvent} for the regions they are entering. If any of the region events is cancelled, the
+     * move event is also cancelled.
+     * <p>
+     * The move must be confirmed with {@link #confirm(Player, boolean)} once the move event is done, so the previous
+     * regions are restored if the move was cancelled by someone else.
+     *
+     * @param event  The move or teleport event.
+     * @param player The player who is moving.
+     * @param from   The location the player is moving from.
+     * @param to     The location the player is moving to.
+     */
+    public static void move(@NotNull Cancellable event, @NotNull Player player, @NotNull Location from, @NotNull Location to)
+    {
+        Membership membership = memberships.get(player.getUniqueId());
+
+        if (membership == null) {
+            // Players online before PlayMoreSounds was enabled are put in their regions silently.
+            membership = new Membership(new ArrayList<>(RegionManager.getRegionsAt(from)));
+            memberships.put(player.getUniqueId(), membership);
+        }
+
+        List<SoundRegion> toRegions = RegionManager.getRegionsAt(to);
+
+        // Nothing changes for the common case of walking outside regions.
+        if (membership.regions.isEmpty() && toRegions.isEmpty()) return;
+
+        ArrayList<SoundRegion> current = membership.regions;
+        boolean changed = current.size() != toRegions.size();
+
+        for (SoundRegion region : current) {
+            if (!toRegions.contains(region)) {
+                changed = true;
+
+                RegionLeaveEvent regionLeaveEvent = new RegionLeaveEvent(region, player, from, to);
+                Bukkit.getPluginManager().callEvent(regionLeaveEvent);
+
+                if (regionLeaveEvent.isCancelled())
+                    event.setCancelled(true);
+            }
+        }
+
+        for (SoundRegion region : toRegions) {
+            if (!current.contains(region)) {
+                changed = true;
+
+                RegionEnterEvent regionEnterEvent = new RegionEnterEvent(region, player, from, to);
+                Bukkit.getPluginManager().callEvent(regionEnterEvent);
+
+                if (regionEnterEvent.isCancelled())
+                    event.setCancelled(true);
+            }
+        }
+
+        if (!changed || event.isCancelled()) return;
+
+        membership.previous = current;
+        membership.regions = new ArrayList<>(toRegions);
+    }
+
+    /**
+     * Confirms the last move of the player. If the move event ended up cancelled, the player is put back in the regions
+     * they were before the move.
+     *
+     * @param player    The player who moved.
+     * @param cancelled If the move event was cancelled.
+     */
+    public static void confirm(@NotNull Player player, boolean cancelled)
+    {
+        Membership membership = memberships.get(player.getUniqueId());
+
+        if (membership == null || membership.previous == null) return;
+
+        if (cancelled) membership.regions = membership.previous;
+
+        membership.previous = null;
+    }
+
+    /**
+     * Removes a region from the membership of all players, without calling {@link RegionLeaveEvent}.
+     *
+     * @param region The region that was deleted.
+     */
+    static void remove(@NotNull SoundRegion region)
+    {
+        for (Membership membership : memberships.values()) {
+            membership.regions.remove(region);
+
+            if (membership.previous != null) membership.previous.remove(region);
+        }
+    }
+
+    /**
+     * Puts every online player in the regions of their location again without calling events, used when regions are
+     * reloaded.
+     */
+    static void refresh()
+    {
+        memberships.clear();
+
+        for (Player player : UniversalVersionMethods.getOnlinePlayers())
+            memberships.put(player.getUniqueId(), new Membership(new ArrayList<>(RegionManager.getRegionsAt(player.getLocation()))));
+    }
+
+    private static final class Membership
+    {
+        private @NotNull ArrayList<SoundRegion> regions;
+        private @Nullable ArrayList<SoundRegion> previous;
+
+        private Membership(@NotNull ArrayList<SoundRegion> regions)
+        {
+            this.regions = regions;
+        }
+    }
+}
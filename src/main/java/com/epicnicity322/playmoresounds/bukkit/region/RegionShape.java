@@ -0,0 +1,304 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.region;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+
+/**
+ * The horizontal shape of a {@link SoundRegion}. Regions are cuboids by default, polygon and cylinder shapes allow a
+ * single region to cover round or irregular areas. The vertical bounds of a region are always its diagonals.
+ * <p>
+ * Shapes are immutable. Their bounding box and edges are computed when they are created, so containment tests only
+ * read primitive arrays.
+ */
+public final class RegionShape
+{
+    /**
+     * The shape of regions defined only by their diagonals.
+     */
+    public static final @NotNull RegionShape CUBOID = new RegionShape(Type.CUBOID, new int[0], new int[0], 0, 0, 0);
+    private final @NotNull Type type;
+    private final @NotNull int[] verticesX;
+    private final @NotNull int[] verticesZ;
+    // The edges of polygons, each one from (edgeX, edgeZ) to (edgeX + edgeDeltaX, edgeZ + edgeDeltaZ), with
+    // edgeDeltaZ never negative.
+    private final @NotNull int[] edgeX;
+    private final @NotNull int[] edgeZ;
+    private final @NotNull int[] edgeDeltaX;
+    private final @NotNull int[] edgeDeltaZ;
+    private final int centerX;
+    private final int centerZ;
+    private final double radius;
+    private final double radiusSquared;
+    private final int minX;
+    private final int minZ;
+    private final int maxX;
+    private final int maxZ;
+
+    private RegionShape(@NotNull Type type, @NotNull int[] verticesX, @NotNull int[] verticesZ, int centerX, int centerZ, double radius)
+    {
+        this.type = type;
+        this.verticesX = verticesX;
+        this.verticesZ = verticesZ;
+        this.centerX = centerX;
+        this.centerZ = centerZ;
+        this.radius = radius;
+        this.radiusSquared = radius * radius;
+
+        int vertices = verticesX.length;
+
+        edgeX = new int[vertices];
+        edgeZ = new int[vertices];
+        edgeDeltaX = new int[vertices];
+        edgeDeltaZ = new int[vertices];
+
+        for (int i = 0; i < vertices; ++i) {
+            int next = i + 1 == vertices ? 0 : i + 1;
+            int fromX = verticesX[i], fromZ = verticesZ[i];
+            int toX = verticesX[next], toZ = verticesZ[next];
+
+            // Pointing every edge to positive Z, so the tests don't need to check the direction.
+            if (fromZ > toZ) {
+                int swap = fromX;
+                fromX = toX;
+                toX = swap;
+                swap = fromZ;
+                fromZ = toZ;
+                toZ = swap;
+            }
+
+            edgeX[i] = fromX;
+            edgeZ[i] = fromZ;
+            edgeDeltaX[i] = toX - fromX;
+            edgeDeltaZ[i] = toZ - fromZ;
+        }
+
+        if (type == Type.CYLINDER) {
+            int blocks = (int) Math.floor(radius);
+
+            minX = centerX - blocks;
+            minZ = centerZ - blocks;
+            maxX = centerX + blocks;
+            maxZ = centerZ + blocks;
+        } else {
+            int minX = Integer.MAX_VALUE, minZ = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxZ = Integer.MIN_VALUE;
+
+            for (int i = 0; i < vertices; ++i) {
+                minX = Math.min(minX, verticesX[i]);
+                minZ = Math.min(minZ, verticesZ[i]);
+                maxX = Math.max(maxX, verticesX[i]);
+                maxZ = Math.max(maxZ, verticesZ[i]);
+            }
+
+            this.minX = vertices == 0 ? 0 : minX;
+            this.minZ = vertices == 0 ? 0 : minZ;
+            this.maxX = vertices == 0 ? 0 : maxX;
+            this.maxZ = vertices == 0 ? 0 : maxZ;
+        }
+    }
+
+    /**
+     * Creates a polygon shape. Blocks on the edges of the polygon are inside it.
+     *
+     * @param verticesX The X block coordinates of the vertices of the polygon, in order.
+     * @param verticesZ The Z block coordinates of the vertices of the polygon, in order.
+     * @return The polygon shape.
+     * @throws IllegalArgumentException If the polygon has less than 3 vertices or the arrays have different lengths.
+     */
+    public static @NotNull RegionShape polygon(@NotNull int[] verticesX, @NotNull int[] verticesZ)
+    {
+        if (verticesX.length != verticesZ.length)
+            throw new IllegalArgumentException("Vertices must have both X and Z coordinates.");
+        if (verticesX.length < 3)
+            throw new IllegalArgumentException("A polygon must have at least 3 vertices.");
+
+        return new RegionShape(Type.POLYGON, verticesX.clone(), verticesZ.clone(), 0, 0, 0);
+    }
+
+    /**
+     * Creates a cylinder shape. Blocks are inside the cylinder if their distance to the center is not greater than the
+     * radius.
+     *
+     * @param centerX The X block coordinate of the center of the cylinder.
+     * @param centerZ The Z block coordinate of the center of the cylinder.
+     * @param radius  The radius of the cylinder in blocks.
+     * @return The cylinder shape.
+     * @throws IllegalArgumentException If the radius is negative.
+     */
+    public static @NotNull RegionShape cylinder(int centerX, int centerZ, double radius)
+    {
+        if (!(radius >= 0)) throw new IllegalArgumentException("Radius can not be negative.");
+
+        return new RegionShape(Type.CYLINDER, new int[0], new int[0], centerX, centerZ, radius);
+    }
+
+    /**
+     * Checks if a block column is inside this shape. The bounding box of the shape must be checked before, this
+     * only tests the parts of the bounding box that are out of the shape.
+     *
+     * @param x The X block coordinate.
+     * @param z The Z block coordinate.
+     * @return If the column is inside the shape, always true for cuboids.
+     */
+    boolean contains(int x, int z)
+    {
+        switch (type) {
+            case CYLINDER:
+                long distanceX = x - centerX;
+                long distanceZ = z - centerZ;
+
+                return distanceX * distanceX + distanceZ * distanceZ <= radiusSquared;
+            case POLYGON:
+                boolean inside = false;
+
+                for (int i = 0; i < edgeX.length; ++i) {
+                    int fromZ = edgeZ[i];
+                    int deltaZ = edgeDeltaZ[i];
+
+                    if (z < fromZ || z > fromZ + deltaZ) continue;
+
+                    int fromX = edgeX[i];
+                    int deltaX = edgeDeltaX[i];
+
+                    if (deltaZ == 0) {
+                        // Horizontal edges are only checked for the column being on them.
+                        if (x >= Math.min(fromX, fromX + deltaX) && x <= Math.max(fromX, fromX + deltaX)) return true;
+
+                        continue;
+                    }
+
+                    // Positive if the column is before the edge on X, zero if it's on the edge.
+                    long side = (long) deltaX * (z - fromZ) - (long) (x - fromX) * deltaZ;
+
+                    if (side == 0) return true;
+                    // Even-odd rule with the edges including their start and excluding their end, so vertices are
+                    // not counted twice.
+                    if (side > 0 && z < fromZ + deltaZ) inside = !inside;
+                }
+
+                return inside;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * @return The type of this shape.
+     */
+    public @NotNull Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return A copy of the X coordinates of the vertices of this polygon, empty if this is not a polygon.
+     */
+    public @NotNull int[] getVerticesX()
+    {
+        return verticesX.clone();
+    }
+
+    /**
+     * @return A copy of the Z coordinates of the vertices of this polygon, empty if this is not a polygon.
+     */
+    public @NotNull int[] getVerticesZ()
+    {
+        return verticesZ.clone();
+    }
+
+    /**
+     * @return The X block coordinate of the center of this cylinder, 0 if this is not a cylinder.
+     */
+    public int getCenterX()
+    {
+        return centerX;
+    }
+
+    /**
+     * @return The Z block coordinate of the center of this cylinder, 0 if this is not a cylinder.
+     */
+    public int getCenterZ()
+    {
+        return centerZ;
+    }
+
+    /**
+     * @return The radius of this cylinder, 0 if this is not a cylinder.
+     */
+    public double getRadius()
+    {
+        return radius;
+    }
+
+    int getMinX()
+    {
+        return minX;
+    }
+
+    int getMinZ()
+    {
+        return minZ;
+    }
+
+    int getMaxX()
+    {
+        return maxX;
+    }
+
+    int getMaxZ()
+    {
+        return maxZ;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) return true;
+        if (!(o instanceof RegionShape)) return false;
+
+        RegionShape that = (RegionShape) o;
+
+        return type == that.type && centerX == that.centerX && centerZ == that.centerZ &&
+                Double.compare(radius, that.radius) == 0 &&
+                Arrays.equals(verticesX, that.verticesX) &&
+                Arrays.equals(verticesZ, that.verticesZ);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int result = type.hashCode();
+
+        result = 31 * result + centerX;
+        result = 31 * result + centerZ;
+        result = 31 * result + Double.hashCode(radius);
+        result = 31 * result + Arrays.hashCode(verticesX);
+        result = 31 * result + Arrays.hashCode(verticesZ);
+        return result;
+    }
+
+    public enum Type
+    {
+        CUBOID,
+        POLYGON,
+        CYLINDER
+    }
+}
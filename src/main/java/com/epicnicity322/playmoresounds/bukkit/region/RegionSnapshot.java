@@ -0,0 +1,350 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.region;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * An immutable view of the loaded regions and their chunk index. Changes create a new snapshot sharing the parts that
+ * did not change, so readers always see a complete registry, even while regions are being saved or reloaded.
+ */
+final class RegionSnapshot
+{
+    static final @NotNull RegionSnapshot EMPTY = new RegionSnapshot(Collections.emptyList());
+    // Regions wider than this amount of chunks are not indexed by chunk, they are checked on every query instead.
+    private static final int MAX_INDEXED_CHUNKS = 1024;
+    private final @NotNull Set<SoundRegion> regions;
+    private final @NotNull Map<UUID, RegionGrid> grids;
+    // The bounds each region had when indexed, so it can be removed from the index even if the region was changed.
+    private final @NotNull Map<UUID, IndexedBounds> indexedBounds;
+
+    /**
+     * Builds a snapshot of the regions. This can be done off the main thread.
+     *
+     * @param regions The regions of the snapshot.
+     */
+    RegionSnapshot(@NotNull Collection<SoundRegion> regions)
+    {
+        Builder builder = new Builder(new HashSet<>(), new HashMap<>(), new HashMap<>());
+
+        for (SoundRegion region : regions) builder.add(region);
+
+        this.regions = Collections.unmodifiableSet(builder.regions);
+        this.grids = builder.grids;
+        this.indexedBounds = builder.indexedBounds;
+    }
+
+    private RegionSnapshot(@NotNull Builder builder)
+    {
+        this.regions = Collections.unmodifiableSet(builder.regions);
+        this.grids = builder.grids;
+        this.indexedBounds = builder.indexedBounds;
+    }
+
+    private static long chunkKey(int chunkX, int chunkZ)
+    {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return An unmodifiable set of the regions of this snapshot.
+     */
+    @NotNull Set<SoundRegion> getRegions()
+    {
+        return regions;
+    }
+
+    /**
+     * Gets the regions that are inside the location, checking only the regions indexed on the chunk of the location.
+     *
+     * @param location The location to get the regions.
+     * @return The regions inside this location.
+     */
+    @NotNull List<SoundRegion> getRegionsAt(@NotNull Location location)
+    {
+        World world = location.getWorld();
+
+        if (world == null) return Collections.emptyList();
+
+        RegionGrid grid = grids.get(world.getUID());
+
+        if (grid == null) return Collections.emptyList();
+
+        List<SoundRegion> found = null;
+        ArrayList<SoundRegion> candidates = grid.chunks.get(chunkKey(location.getBlockX() >> 4, location.getBlockZ() >> 4));
+
+        if (candidates != null)
+            for (int i = 0; i < candidates.size(); ++i) {
+                SoundRegion region = candidates.get(i);
+
+                if (region.isInside(location)) {
+                    if (found == null) found = new ArrayList<>(2);
+
+                    found.add(region);
+                }
+            }
+
+        for (int i = 0; i < grid.large.size(); ++i) {
+            SoundRegion region = grid.large.get(i);
+
+            if (region.isInside(location)) {
+                if (found == null) found = new ArrayList<>(2);
+
+                found.add(region);
+            }
+        }
+
+        return found == null ? Collections.emptyList() : found;
+    }
+
+    /**
+     * Creates a snapshot with the region added, replacing the region with the same id if there is one.
+     *
+     * @param region The region to add.
+     * @return The new snapshot.
+     */
+    @NotNull RegionSnapshot with(@NotNull SoundRegion region)
+    {
+        Builder builder = new Builder(new HashSet<>(regions), new HashMap<>(grids), new HashMap<>(indexedBounds));
+
+        builder.remove(region);
+        builder.add(region);
+        return new RegionSnapshot(builder);
+    }
+
+    /**
+     * Creates a snapshot with the regions added, replacing the regions with the same ids if there are any.
+     *
+     * @param added The regions to add.
+     * @return The new snapshot.
+     */
+    @NotNull RegionSnapshot withAll(@NotNull Collection<SoundRegion> added)
+    {
+        if (added.isEmpty()) return this;
+
+        Builder builder = new Builder(new HashSet<>(regions), new HashMap<>(grids), new HashMap<>(indexedBounds));
+
+        for (SoundRegion region : added) {
+            builder.remove(region);
+            builder.add(region);
+        }
+
+        return new RegionSnapshot(builder);
+    }
+
+    /**
+     * Creates a snapshot without the regions of a world.
+     *
+     * @param world The UUID of the world.
+     * @return The new snapshot.
+     */
+    @NotNull RegionSnapshot withoutWorld(@NotNull UUID world)
+    {
+        if (!grids.containsKey(world)) return this;
+
+        Builder builder = new Builder(new HashSet<>(), new HashMap<>(grids), new HashMap<>(indexedBounds));
+
+        builder.grids.remove(world);
+
+        for (SoundRegion region : regions) {
+            IndexedBounds bounds = indexedBounds.get(region.getId());
+
+            if (bounds != null && bounds.world.equals(world))
+                builder.indexedBounds.remove(region.getId());
+            else
+                builder.regions.add(region);
+        }
+
+        return new RegionSnapshot(builder);
+    }
+
+    /**
+     * @param world The UUID of the world.
+     * @return The regions of this snapshot that are on the world.
+     */
+    @NotNull List<SoundRegion> getRegions(@NotNull UUID world)
+    {
+        ArrayList<SoundRegion> worldRegions = new ArrayList<>();
+
+        for (SoundRegion region : regions) {
+            IndexedBounds bounds = indexedBounds.get(region.getId());
+
+            if (bounds != null && bounds.world.equals(world)) worldRegions.add(region);
+        }
+
+        return worldRegions;
+    }
+
+    /**
+     * Creates a snapshot without the region.
+     *
+     * @param region The region to remove.
+     * @return The new snapshot.
+     */
+    @NotNull RegionSnapshot without(@NotNull SoundRegion region)
+    {
+        if (!indexedBounds.containsKey(region.getId())) return this;
+
+        Builder builder = new Builder(new HashSet<>(regions), new HashMap<>(grids), new HashMap<>(indexedBounds));
+
+        builder.remove(region);
+        return new RegionSnapshot(builder);
+    }
+
+    /**
+     * Changes copies of the structures of a snapshot. Grids and chunk lists shared with the previous snapshot are
+     * copied before being changed.
+     */
+    private static final class Builder
+    {
+        private final @NotNull HashSet<SoundRegion> regions;
+        private final @NotNull HashMap<UUID, RegionGrid> grids;
+        private final @NotNull HashMap<UUID, IndexedBounds> indexedBounds;
+        private final @NotNull Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private Builder(@NotNull HashSet<SoundRegion> regions, @NotNull HashMap<UUID, RegionGrid> grids, @NotNull HashMap<UUID, IndexedBounds> indexedBounds)
+        {
+            this.regions = regions;
+            this.grids = grids;
+            this.indexedBounds = indexedBounds;
+        }
+
+        private @NotNull RegionGrid ownedGrid(@NotNull UUID world)
+        {
+            RegionGrid grid = grids.get(world);
+
+            if (grid == null) {
+                grid = new RegionGrid(new HashMap<>(), new ArrayList<>());
+            } else if (owned.contains(grid)) {
+                return grid;
+            } else {
+                grid = new RegionGrid(new HashMap<>(grid.chunks), new ArrayList<>(grid.large));
+            }
+
+            owned.add(grid);
+            grids.put(world, grid);
+            return grid;
+        }
+
+        private @NotNull ArrayList<SoundRegion> ownedChunk(@NotNull RegionGrid grid, long key)
+        {
+            ArrayList<SoundRegion> chunkRegions = grid.chunks.get(key);
+
+            if (chunkRegions == null) {
+                chunkRegions = new ArrayList<>(2);
+            } else if (owned.contains(chunkRegions)) {
+                return chunkRegions;
+            } else {
+                chunkRegions = new ArrayList<>(chunkRegions);
+            }
+
+            owned.add(chunkRegions);
+            grid.chunks.put(key, chunkRegions);
+            return chunkRegions;
+        }
+
+        private void add(@NotNull SoundRegion region)
+        {
+            if (!regions.add(region)) return;
+
+            Location max = region.getMaxDiagonal();
+            Location min = region.getMinDiagonal();
+            IndexedBounds bounds = new IndexedBounds(max.getWorld().getUID(), min.getBlockX() >> 4, min.getBlockZ() >> 4,
+                    max.getBlockX() >> 4, max.getBlockZ() >> 4);
+            RegionGrid grid = ownedGrid(bounds.world);
+
+            indexedBounds.put(region.getId(), bounds);
+
+            if (bounds.isLarge()) {
+                grid.large.add(region);
+                return;
+            }
+
+            for (int chunkX = bounds.minChunkX; chunkX <= bounds.maxChunkX; ++chunkX)
+                for (int chunkZ = bounds.minChunkZ; chunkZ <= bounds.maxChunkZ; ++chunkZ)
+                    ownedChunk(grid, chunkKey(chunkX, chunkZ)).add(region);
+        }
+
+        private void remove(@NotNull SoundRegion region)
+        {
+            regions.remove(region);
+
+            IndexedBounds bounds = indexedBounds.remove(region.getId());
+
+            if (bounds == null || !grids.containsKey(bounds.world)) return;
+
+            RegionGrid grid = ownedGrid(bounds.world);
+
+            if (bounds.isLarge()) {
+                grid.large.remove(region);
+                return;
+            }
+
+            for (int chunkX = bounds.minChunkX; chunkX <= bounds.maxChunkX; ++chunkX)
+                for (int chunkZ = bounds.minChunkZ; chunkZ <= bounds.maxChunkZ; ++chunkZ) {
+                    long key = chunkKey(chunkX, chunkZ);
+
+                    if (!grid.chunks.containsKey(key)) continue;
+
+                    ArrayList<SoundRegion> chunkRegions = ownedChunk(grid, key);
+
+                    if (chunkRegions.remove(region) && chunkRegions.isEmpty()) grid.chunks.remove(key);
+                }
+        }
+    }
+
+    private static final class RegionGrid
+    {
+        private final @NotNull HashMap<Long, ArrayList<SoundRegion>> chunks;
+        private final @NotNull ArrayList<SoundRegion> large;
+
+        private RegionGrid(@NotNull HashMap<Long, ArrayList<SoundRegion>> chunks, @NotNull ArrayList<SoundRegion> large)
+        {
+            this.chunks = chunks;
+            this.large = large;
+        }
+    }
+
+    private static final class IndexedBounds
+    {
+        private final @NotNull UUID world;
+        private final int minChunkX;
+        private final int minChunkZ;
+        private final int maxChunkX;
+        private final int maxChunkZ;
+
+        private IndexedBounds(@NotNull UUID world, int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ)
+        {
+            this.world = world;
+            this.minChunkX = minChunkX;
+            this.minChunkZ = minChunkZ;
+            this.maxChunkX = maxChunkX;
+            this.maxChunkZ = maxChunkZ;
+        }
+
+        private boolean isLarge()
+        {
+            return (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1) > MAX_INDEXED_CHUNKS;
+        }
+    }
+}
@@ -0,0 +1,620 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.region;
+
+import com.epicnicity322.epicpluginlib.core.logger.ConsoleLogger;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
+import com.epicnicity322.yamlhandler.Configuration;
+import com.epicnicity322.yamlhandler.ConfigurationSection;
+import com.epicnicity322.yamlhandler.YamlConfigurationLoader;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Stores all sound regions in a single file, "Data/Regions.dat", with the changes made since the file was last written
+ * kept in a journal, "Data/Regions.journal".
+ * <p>
+ * Changes are appended to the journal asynchronously in batches, and the journal is merged into the regions file when
+ * regions are loaded or when it gets too big. Regions of worlds that are not loaded are kept in the store, so they are
+ * not lost when the file is written again.
+ */
+final class RegionStore
+{
+    private static final int MAGIC = 0x504D5352;
+    private static final byte VERSION = 1;
+    private static final byte OPERATION_SAVE = 1;
+    private static final byte OPERATION_DELETE = 2;
+    private static final byte SHAPE_CUBOID = 0;
+    private static final byte SHAPE_POLYGON = 1;
+    private static final byte SHAPE_CYLINDER = 2;
+    private static final int MAX_JOURNAL_OPERATIONS = 512;
+    private static final long FLUSH_DELAY = 20;
+    private static final @NotNull Path dataFolder = PlayMoreSoundsCore.getFolder().resolve("Data");
+    private static final @NotNull Path storeFile = dataFolder.resolve("Regions.dat");
+    private static final @NotNull Path journalFile = dataFolder.resolve("Regions.journal");
+    private static final @NotNull Path legacyFolder = dataFolder.resolve("Regions");
+    // Guards the records and pending operations. Never held while the disk is accessed.
+    private static final @NotNull Object lock = new Object();
+    // Serialises the reads and writes of the store files.
+    private static final @NotNull Object ioLock = new Object();
+    // The stored regions, including the ones on worlds that are not loaded.
+    private static final @NotNull LinkedHashMap<UUID, Record> records = new LinkedHashMap<>();
+    private static final @NotNull ArrayList<Operation> pendingOperations = new ArrayList<>();
+    private static boolean flushScheduled = false;
+    // Only accessed while holding the I/O lock.
+    private static int journalOperations = 0;
+    private static boolean storeWritable = true;
+
+    static {
+        PlayMoreSounds.onDisable(RegionStore::flush);
+    }
+
+    private RegionStore()
+    {
+    }
+
+    /**
+     * Reads all stored regions with a single sequential read of the store file, after writing the pending changes.
+     * Regions saved as YAML files on "Data/Regions" by older versions are moved to the store the first time. Files that
+     * can't be read are renamed before the store is written again, so the regions that were not read are not lost.
+     *
+     * @return The records of all stored regions.
+     */
+    static @NotNull Collection<Record> load()
+    {
+        synchronized (ioLock) {
+            flush();
+
+            LinkedHashMap<UUID, Record> loaded = new LinkedHashMap<>();
+            boolean rewrite = false;
+
+            journalOperations = 0;
+            storeWritable = true;
+
+            try {
+                if (Files.exists(storeFile)) readStore(loaded);
+                if (Files.exists(journalFile)) readJournal(loaded);
+            } catch (IOException e) {
+                PlayMoreSounds.getConsoleLogger().log("Could not read all sound regions from " + storeFile.getFileName() + ".", ConsoleLogger.Level.WARN);
+                PlayMoreSoundsCore.getErrorHandler().report(e, "Load Regions Exception:");
+                // Writing the store again would replace the regions that could not be read by the ones that were.
+                rewrite = backUpUnreadable();
+            }
+
+            try {
+                // The old files are only moved if the store can take their regions.
+                if (storeWritable && migrateLegacy(loaded)) rewrite = true;
+            } catch (IOException e) {
+                PlayMoreSounds.getConsoleLogger().log("Could not move the sound regions of Data/Regions to " + storeFile.getFileName() + ".", ConsoleLogger.Level.WARN);
+                PlayMoreSoundsCore.getErrorHandler().report(e, "Migrate Regions Exception:");
+            }
+
+            ArrayList<Record> loadedRecords;
+
+            synchronized (lock) {
+                // Regions saved or deleted while the files were read are not in the journal yet.
+                for (Operation operation : pendingOperations) operation.apply(loaded);
+
+                records.clear();
+                records.putAll(loaded);
+                loadedRecords = new ArrayList<>(loaded.values());
+            }
+
+            // Merging the journal into the store, so the next load is a single read.
+            if (storeWritable && (rewrite || journalOperations > 0)) {
+                try {
+                    writeStore(loadedRecords);
+                } catch (IOException e) {
+                    PlayMoreSounds.getConsoleLogger().log("Could not write sound regions to " + storeFile.getFileName() + ".", ConsoleLogger.Level.WARN);
+                    PlayMoreSoundsCore.getErrorHandler().report(e, "Save Regions Exception:");
+                }
+            }
+
+            return loadedRecords;
+        }
+    }
+
+    /**
+     * Gets the records of the last {@link #load()} and of the changes made after it that are on a world. No file is
+     * read, so this can be used to get the regions of a world that was loaded after the store.
+     *
+     * @param world The UUID of the world of the regions.
+     * @return The records of the stored regions on this world.
+     */
+    static @NotNull List<Record> getRecords(@NotNull UUID world)
+    {
+        ArrayList<Record> worldRecords = new ArrayList<>();
+
+        synchronized (lock) {
+            for (Record record : records.values()) if (record.world.equals(world)) worldRecords.add(record);
+        }
+
+        return worldRecords;
+    }
+
+    /**
+     * Saves the region in the store. The region's data is copied immediately, but written to the disk asynchronously.
+     *
+     * @param region The region to save.
+     */
+    static void save(@NotNull SoundRegion region)
+    {
+        Record record = new Record(region);
+
+        synchronized (lock) {
+            records.put(record.id, record);
+            pendingOperations.add(new Operation(OPERATION_SAVE, record.id, record));
+        }
+
+        scheduleFlush();
+    }
+
+    /**
+     * Deletes the region from the store. The deletion is written to the disk asynchronously.
+     *
+     * @param id The id of the region to delete.
+     */
+    static void delete(@NotNull UUID id)
+    {
+        synchronized (lock) {
+            if (records.remove(id) == null) return;
+
+            pendingOperations.add(new Operation(OPERATION_DELETE, id, null));
+        }
+
+        scheduleFlush();
+    }
+
+    private static void scheduleFlush()
+    {
+        PlayMoreSounds plugin = PlayMoreSounds.getInstance();
+
+        // Without the plugin enabled there is no scheduler to write later.
+        if (plugin == null || !plugin.isEnabled()) {
+            flush();
+            return;
+        }
+
+        synchronized (lock) {
+            if (flushScheduled) return;
+
+            flushScheduled = true;
+        }
+
+        // Changes made within a second are written together.
+        Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, RegionStore::flush, FLUSH_DELAY);
+    }
+
+    /**
+     * Appends the pending changes to the journal, writing the whole store instead if the journal got too big.
+     */
+    static void flush()
+    {
+        synchronized (ioLock) {
+            ArrayList<Operation> operations;
+            ArrayList<Record> storeRecords = null;
+
+            // Taking the changes and copying the records, so regions can be saved while the disk is written.
+            synchronized (lock) {
+                flushScheduled = false;
+
+                if (pendingOperations.isEmpty()) return;
+
+                operations = new ArrayList<>(pendingOperations);
+                pendingOperations.clear();
+
+                if (storeWritable && journalOperations + operations.size() > MAX_JOURNAL_OPERATIONS)
+                    storeRecords = new ArrayList<>(records.values());
+            }
+
+            try {
+                if (storeRecords != null) {
+                    writeStore(storeRecords);
+                } else {
+                    appendJournal(operations);
+                    journalOperations += operations.size();
+                }
+            } catch (IOException e) {
+                synchronized (lock) {
+                    pendingOperations.addAll(0, operations);
+                }
+
+                PlayMoreSounds.getConsoleLogger().log("Could not save sound regions, trying again on next change.", ConsoleLogger.Level.WARN);
+                PlayMoreSoundsCore.getErrorHandler().report(e, "Save Regions Exception:");
+            }
+        }
+    }
+
+    /**
+     * Renames the store files that could not be read, so they are not replaced when the store is written again.
+     *
+     * @return If the files were renamed and the store can be written.
+     */
+    private static boolean backUpUnreadable()
+    {
+        String suffix = "." + System.currentTimeMillis() + ".broken";
+
+        try {
+            for (Path file : new Path[]{storeFile, journalFile})
+                if (Files.exists(file)) Files.move(file, dataFolder.resolve(file.getFileName() + suffix));
+
+            journalOperations = 0;
+            PlayMoreSounds.getConsoleLogger().log("The region files that could not be read were renamed to end with \"" + suffix + "\".", ConsoleLogger.Level.WARN);
+            return true;
+        } catch (IOException e) {
+            // The store is not written until it can be read, changes are still added to the journal.
+            storeWritable = false;
+            PlayMoreSounds.getConsoleLogger().log("Could not rename the region files that could not be read, changes to regions will only be added to " + journalFile.getFileName() + ".", ConsoleLogger.Level.WARN);
+            PlayMoreSoundsCore.getErrorHandler().report(e, "Back Up Regions Exception:");
+            return false;
+        }
+    }
+
+    private static void readStore(@NotNull LinkedHashMap<UUID, Record> records) throws IOException
+    {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(storeFile)))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException(storeFile.getFileName() + " is not a valid regions file.");
+
+            byte version = input.readByte();
+
+            if (version != VERSION)
+                throw new IOException(storeFile.getFileName() + " was saved by an unsupported version of PlayMoreSounds.");
+
+            int count = input.readInt();
+
+            for (int i = 0; i < count; ++i) {
+                Record record = Record.read(input);
+                records.put(record.id, record);
+            }
+        }
+    }
+
+    private static void readJournal(@NotNull LinkedHashMap<UUID, Record> records) throws IOException
+    {
+        journalOperations = 0;
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(journalFile)))) {
+            while (true) {
+                Operation operation;
+
+                try {
+                    operation = Operation.read(input);
+                } catch (EOFException e) {
+                    // The end of the journal, or a partial operation left when the server stopped while writing it.
+                    break;
+                }
+
+                ++journalOperations;
+                operation.apply(records);
+            }
+        }
+
+        // Making sure the store is written, even if the journal only had a partial operation.
+        if (journalOperations == 0 && Files.size(journalFile) != 0) journalOperations = 1;
+    }
+
+    private static boolean migrateLegacy(@NotNull LinkedHashMap<UUID, Record> records) throws IOException
+    {
+        if (!Files.isDirectory(legacyFolder)) return false;
+
+        YamlConfigurationLoader loader = new YamlConfigurationLoader();
+        int migrated = 0;
+
+        try (Stream<Path> regionFiles = Files.list(legacyFolder)) {
+            for (Path regionFile : (Iterable<Path>) regionFiles::iterator) {
+                try {
+                    Record record = Record.fromLegacy(loader.load(regionFile));
+
+                    if (!records.containsKey(record.id)) {
+                        records.put(record.id, record);
+                        ++migrated;
+                    }
+                } catch (Exception ignored) {
+                    // Ignoring files that aren't considered valid regions.
+                }
+            }
+        }
+
+        // The old files are kept as a backup, renaming the folder so they are not migrated again.
+        Path backup = dataFolder.resolve("Regions.old");
+
+        // A folder can't replace another that is not empty, so a backup of a previous migration is kept too.
+        for (int i = 1; Files.exists(backup); ++i) backup = dataFolder.resolve("Regions.old." + i);
+
+        Files.move(legacyFolder, backup);
+        PlayMoreSounds.getConsoleLogger().log("Moved " + migrated + " sound regions from Data/Regions to " + storeFile.getFileName() + ". The old files were kept in Data/" + backup.getFileName() + ".");
+        return true;
+    }
+
+    private static void writeStore(@NotNull Collection<Record> records) throws IOException
+    {
+        Files.createDirectories(dataFolder);
+
+        Path temp = dataFolder.resolve("Regions.dat.tmp");
+
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeInt(records.size());
+
+            for (Record record : records) record.write(output);
+
+            output.flush();
+            channel.force(true);
+        }
+
+        Files.move(temp, storeFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // Every operation of the journal is in the store now.
+        Files.deleteIfExists(journalFile);
+        journalOperations = 0;
+    }
+
+    private static void appendJournal(@NotNull Collection<Operation> operations) throws IOException
+    {
+        Files.createDirectories(dataFolder);
+
+        try (FileChannel channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+            for (Operation operation : operations) operation.write(output);
+
+            output.flush();
+            channel.force(false);
+        }
+    }
+
+    /**
+     * The stored data of a region. Records don't depend on the world of the region being loaded.
+     */
+    static final class Record
+    {
+        final @NotNull UUID id;
+        final @NotNull UUID world;
+        private final @NotNull String name;
+        private final @Nullable UUID creator;
+        private final @NotNull String creationDate;
+        private final @Nullable String description;
+        private final int maxX, maxY, maxZ, minX, minY, minZ;
+        private final @NotNull RegionShape shape;
+
+        private Record(@NotNull UUID id, @NotNull UUID world, @NotNull String name, @Nullable UUID creator,
+                       @NotNull String creationDate, @Nullable String description,
+                       int maxX, int maxY, int maxZ, int minX, int minY, int minZ, @NotNull RegionShape shape)
+        {
+            this.id = id;
+            this.world = world;
+            this.name = name;
+            this.creator = creator;
+            this.creationDate = creationDate;
+            this.description = description;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.maxZ = maxZ;
+            this.minX = minX;
+            this.minY = minY;
+            this.minZ = minZ;
+            this.shape = shape;
+        }
+
+        private Record(@NotNull SoundRegion region)
+        {
+            this(region.getId(), region.getMaxDiagonal().getWorld().getUID(), region.getName(), region.getCreator(),
+                    region.getCreationDate().toString(), region.getDescription(),
+                    region.getMaxDiagonal().getBlockX(), region.getMaxDiagonal().getBlockY(), region.getMaxDiagonal().getBlockZ(),
+                    region.getMinDiagonal().getBlockX(), region.getMinDiagonal().getBlockY(), region.getMinDiagonal().getBlockZ(),
+                    region.getShape());
+        }
+
+        private static @NotNull Record fromLegacy(@NotNull Configuration data)
+        {
+            String fileName = data.getFilePath().orElseThrow(IllegalArgumentException::new).getFileName().toString();
+            ConfigurationSection first = data.getConfigurationSection("Diagonals.First");
+            ConfigurationSection second = data.getConfigurationSection("Diagonals.Second");
+
+            if (first == null || second == null) throw new IllegalArgumentException();
+
+            return new Record(UUID.fromString(fileName.substring(0, fileName.indexOf("."))),
+                    UUID.fromString(data.getString("World").orElseThrow(IllegalArgumentException::new)),
+                    data.getString("Name").orElseThrow(IllegalArgumentException::new),
+                    data.getString("Creator").map(UUID::fromString).orElse(null),
+                    data.getString("Creation Date").orElseThrow(IllegalArgumentException::new),
+                    data.getString("Description").orElse(null),
+                    first.getNumber("X").orElseThrow(IllegalArgumentException::new).intValue(),
+                    first.getNumber("Y").orElseThrow(IllegalArgumentException::new).intValue(),
+                    first.getNumber("Z").orElseThrow(IllegalArgumentException::new).intValue(),
+                    second.getNumber("X").orElseThrow(IllegalArgumentException::new).intValue(),
+                    second.getNumber("Y").orElseThrow(IllegalArgumentException::new).intValue(),
+                    second.getNumber("Z").orElseThrow(IllegalArgumentException::new).intValue(), RegionShape.CUBOID);
+        }
+
+        private static @NotNull Record read(@NotNull DataInputStream input) throws IOException
+        {
+            UUID id = new UUID(input.readLong(), input.readLong());
+            UUID world = new UUID(input.readLong(), input.readLong());
+            String name = input.readUTF();
+            UUID creator = input.readBoolean() ? new UUID(input.readLong(), input.readLong()) : null;
+            String creationDate = input.readUTF();
+            String description = input.readBoolean() ? input.readUTF() : null;
+
+            int maxX = input.readInt(), maxY = input.readInt(), maxZ = input.readInt();
+            int minX = input.readInt(), minY = input.readInt(), minZ = input.readInt();
+
+            return new Record(id, world, name, creator, creationDate, description, maxX, maxY, maxZ, minX, minY, minZ,
+                    readShape(input));
+        }
+
+        private static @NotNull RegionShape readShape(@NotNull DataInputStream input) throws IOException
+        {
+            byte type = input.readByte();
+
+            switch (type) {
+                case SHAPE_CUBOID:
+                    return RegionShape.CUBOID;
+                case SHAPE_POLYGON:
+                    int vertices = input.readInt();
+                    int[] verticesX = new int[vertices];
+                    int[] verticesZ = new int[vertices];
+
+                    for (int i = 0; i < vertices; ++i) {
+                        verticesX[i] = input.readInt();
+                        verticesZ[i] = input.readInt();
+                    }
+
+                    return RegionShape.polygon(verticesX, verticesZ);
+                case SHAPE_CYLINDER:
+                    return RegionShape.cylinder(input.readInt(), input.readInt(), input.readDouble());
+                default:
+                    throw new IOException("Unknown region shape " + type);
+            }
+        }
+
+        private void write(@NotNull DataOutputStream output) throws IOException
+        {
+            output.writeLong(id.getMostSignificantBits());
+            output.writeLong(id.getLeastSignificantBits());
+            output.writeLong(world.getMostSignificantBits());
+            output.writeLong(world.getLeastSignificantBits());
+            output.writeUTF(name);
+            output.writeBoolean(creator != null);
+
+            if (creator != null) {
+                output.writeLong(creator.getMostSignificantBits());
+                output.writeLong(creator.getLeastSignificantBits());
+            }
+
+            output.writeUTF(creationDate);
+            output.writeBoolean(description != null);
+
+            if (description != null) output.writeUTF(description);
+
+            output.writeInt(maxX);
+            output.writeInt(maxY);
+            output.writeInt(maxZ);
+            output.writeInt(minX);
+            output.writeInt(minY);
+            output.writeInt(minZ);
+            switch (shape.getType()) {
+                case CUBOID:
+                    output.writeByte(SHAPE_CUBOID);
+                    break;
+                case POLYGON:
+                    int[] verticesX = shape.getVerticesX();
+                    int[] verticesZ = shape.getVerticesZ();
+
+                    output.writeByte(SHAPE_POLYGON);
+                    output.writeInt(verticesX.length);
+
+                    for (int i = 0; i < verticesX.length; ++i) {
+                        output.writeInt(verticesX[i]);
+                        output.writeInt(verticesZ[i]);
+                    }
+                    break;
+                case CYLINDER:
+                    output.writeByte(SHAPE_CYLINDER);
+                    output.writeInt(shape.getCenterX());
+                    output.writeInt(shape.getCenterZ());
+                    output.writeDouble(shape.getRadius());
+                    break;
+            }
+        }
+
+        /**
+         * Creates the region of this record. This does not access the server, so it can be done off the main thread.
+         *
+         * @param world The loaded world with the UUID of {@link #world}.
+         * @return The region.
+         * @throws IllegalArgumentException If the record has an invalid name or creation date.
+         */
+        @NotNull SoundRegion toRegion(@NotNull World world)
+        {
+            return new SoundRegion(id, name, creator, ZonedDateTime.parse(creationDate), description,
+                    new Location(world, maxX, maxY, maxZ), new Location(world, minX, minY, minZ), shape);
+        }
+    }
+
+    private static final class Operation
+    {
+        private final byte type;
+        private final @NotNull UUID id;
+        private final @Nullable Record record;
+
+        private Operation(byte type, @NotNull UUID id, @Nullable Record record)
+        {
+            this.type = type;
+            this.id = id;
+            this.record = record;
+        }
+
+        private static @NotNull Operation read(@NotNull DataInputStream input) throws IOException
+        {
+            byte type = input.readByte();
+
+            switch (type) {
+                case OPERATION_SAVE:
+                    Record record = Record.read(input);
+                    return new Operation(type, record.id, record);
+                case OPERATION_DELETE:
+                    return new Operation(type, new UUID(input.readLong(), input.readLong()), null);
+                default:
+                    // Anything after an unknown operation can't be trusted.
+                    throw new EOFException("Unknown region journal operation " + type);
+            }
+        }
+
+        private void apply(@NotNull LinkedHashMap<UUID, Record> records)
+        {
+            if (record != null)
+                records.put(id, record);
+            else
+                records.remove(id);
+        }
+
+        private void write(@NotNull DataOutputStream output) throws IOException
+        {
+            output.writeByte(type);
+
+            if (record != null) {
+                record.write(output);
+            } else {
+                output.writeLong(id.getMostSignificantBits());
+                output.writeLong(id.getLeastSignificantBits());
+            }
+        }
+    }
+}
@@ -42,7 +42,7 @@ public class SoundRegion
     private @Nullable String description;
     private @NotNull Location maxDiagonal;
     private Location minDiagonal;
-    private Set<Location> border;
+    private @NotNull RegionShape shape = RegionShape.CUBOID;
 
     /**
      * Loads a sound region from a configuration file. This configuration file must have the name of an {@link UUID} and
@@ -103,32 +103,57 @@ public class SoundRegion
     }
 
     /**
-     * @return The exact locations of the border blocks of this region.
+     * Creates a new sound region with a polygon or cylinder shape.
+     *
+     * @param name        The name of the region.
+     * @param world       The world of this region.
+     * @param shape       The horizontal shape of this region.
+     * @param minY        The lowest Y coordinate of this region.
+     * @param maxY        The highest Y coordinate of this region.
+     * @param creator     The {@link UUID} of the player who created this region, null if it was made by console.
+     * @param description The description of this region.
+     * @throws IllegalArgumentException If the shape is {@link RegionShape#CUBOID}, cuboids are created with diagonals.
      */
-    private Set<Location> parseBorder()
+    public SoundRegion(@NotNull String name, @NotNull World world, @NotNull RegionShape shape, int minY, int maxY,
+                       @Nullable UUID creator, @Nullable String description)
     {
-        HashSet<Location> border = new HashSet<>();
-
-        double startX = minDiagonal.getX();
-        double endX = maxDiagonal.getX() + 1d;
-        double startY = minDiagonal.getY();
-        double endY = maxDiagonal.getY() + 1d;
-        double startZ = minDiagonal.getZ();
-        double endZ = maxDiagonal.getZ() + 1d;
-        World world = minDiagonal.getWorld();
-
-        for (double x = startX; x <= endX; ++x)
-            for (double y = startY; y <= endY; ++y)
-                for (double z = startZ; z <= endZ; ++z) {
-                    boolean edgeX = x == startX || x == endX;
-                    boolean edgeY = y == startY || y == endY;
-                    boolean edgeZ = z == startZ || z == endZ;
+        if (shape.getType() == RegionShape.Type.CUBOID)
+            throw new IllegalArgumentException("Cuboid regions are created with diagonals.");
 
-                    if ((edgeX && edgeY) || (edgeZ && edgeY) || (edgeX && edgeZ))
-                        border.add(new Location(world, x, y, z));
-                }
+        id = UUID.randomUUID();
+        this.creator = creator;
+        this.creationDate = ZonedDateTime.now();
+        this.description = description;
+        this.maxDiagonal = new Location(world, shape.getMaxX(), maxY, shape.getMaxZ());
+        setName(name);
+        setMinDiagonal(new Location(world, shape.getMinX(), minY, shape.getMinZ()));
+        this.shape = shape;
+    }
 
-        return Collections.unmodifiableSet(border);
+    /**
+     * Creates a sound region with data loaded from the region store.
+     *
+     * @param id           The id of the region.
+     * @param name         The name of the region.
+     * @param creator      The {@link UUID} of the player who created this region, null if it was made by console.
+     * @param creationDate The time this region was created.
+     * @param description  The description of this region.
+     * @param maxDiagonal  The {@link Location} of the first diagonal of this region.
+     * @param minDiagonal  The {@link Location} of the second diagonal of this region.
+     * @param shape        The horizontal shape of this region, within the diagonals.
+     */
+    SoundRegion(@NotNull UUID id, @NotNull String name, @Nullable UUID creator, @NotNull ZonedDateTime creationDate,
+                @Nullable String description, @NotNull Location maxDiagonal, @NotNull Location minDiagonal,
+                @NotNull RegionShape shape)
+    {
+        this.id = id;
+        this.creator = creator;
+        this.creationDate = creationDate;
+        this.description = description;
+        this.maxDiagonal = maxDiagonal;
+        setName(name);
+        setMinDiagonal(minDiagonal);
+        this.shape = shape;
     }
 
     /**
@@ -138,10 +163,12 @@ public class SoundRegion
      */
     public boolean isInside(@NotNull Location location)
     {
+        // The diagonals are the bounding box of every shape, so the shape is only tested inside them.
         return location.getWorld().equals(minDiagonal.getWorld()) &&
                 location.getBlockX() >= minDiagonal.getBlockX() && location.getBlockX() <= maxDiagonal.getBlockX() &&
                 location.getBlockY() >= minDiagonal.getBlockY() && location.getBlockY() <= maxDiagonal.getBlockY() &&
-                location.getBlockZ() >= minDiagonal.getBlockZ() && location.getBlockZ() <= maxDiagonal.getBlockZ();
+                location.getBlockZ() >= minDiagonal.getBlockZ() && location.getBlockZ() <= maxDiagonal.getBlockZ() &&
+                shape.contains(location.getBlockX(), location.getBlockZ());
     }
 
     /**
@@ -188,6 +215,35 @@ public class SoundRegion
         return creationDate;
     }
 
+    /**
+     * Gets the horizontal shape of this region.
+     *
+     * @return The shape of this region, {@link RegionShape#CUBOID} if this region is defined only by its diagonals.
+     */
+    public @NotNull RegionShape getShape()
+    {
+        return shape;
+    }
+
+    /**
+     * Sets the horizontal shape of this region, keeping its Y coordinates. The diagonals of the region are changed to
+     * the bounding box of the shape, unless the shape is {@link RegionShape#CUBOID}, in which case the diagonals are
+     * kept as they are.
+     *
+     * @param shape The shape you want this region to have.
+     */
+    public void setShape(@NotNull RegionShape shape)
+    {
+        if (shape.getType() != RegionShape.Type.CUBOID) {
+            World world = minDiagonal.getWorld();
+
+            maxDiagonal = new Location(world, shape.getMaxX(), maxDiagonal.getBlockY(), shape.getMaxZ());
+            minDiagonal = new Location(world, shape.getMinX(), minDiagonal.getBlockY(), shape.getMinZ());
+        }
+
+        this.shape = shape;
+    }
+
     /**
      * Gets the max diagonal location of this region.
      *
@@ -199,7 +255,8 @@ public class SoundRegion
     }
 
     /**
-     * Calculates the min and max coordinates of this location and second position and updates both.
+     * Calculates the min and max coordinates of this location and second position and updates both. Regions with a
+     * polygon or cylinder shape become cuboids.
      *
      * @param loc The location of a diagonal of this sound region.
      */
@@ -219,7 +276,7 @@ public class SoundRegion
 
         maxDiagonal = new Location(world, maxX, maxY, maxZ);
         minDiagonal = new Location(world, minX, minY, minZ);
-        border = parseBorder();
+        shape = RegionShape.CUBOID;
     }
 
     /**
@@ -233,7 +290,8 @@ public class SoundRegion
     }
 
     /**
-     * Calculates the min and max coordinates of this location and max diagonal and updates both.
+     * Calculates the min and max coordinates of this location and max diagonal and updates both. Regions with a
+     * polygon or cylinder shape become cuboids.
      *
      * @param location The location of a diagonal of this sound region.
      */
@@ -253,17 +311,90 @@ public class SoundRegion
 
         maxDiagonal = new Location(world, maxX, maxY, maxZ);
         minDiagonal = new Location(world, minX, minY, minZ);
-        border = parseBorder();
+        shape = RegionShape.CUBOID;
     }
 
     /**
-     * Gets the coordinates of the border blocks of this region.
+     * Gets the coordinates of the border blocks of this region. The border is computed on every call, big regions have
+     * a lot of border blocks, so {@link #forEachBorderBlock(Location, int, BorderConsumer)} should be preferred.
      *
      * @return The coordinates of the border of this region.
+     * @deprecated Allocates a location for every border block, use {@link #forEachBorderBlock(Location, int, BorderConsumer)}.
      */
+    @Deprecated
     public @NotNull Set<Location> getBorder()
     {
-        return border;
+        HashSet<Location> border = new HashSet<>();
+        World world = minDiagonal.getWorld();
+
+        forEachBorderBlock((x, y, z) -> border.add(new Location(world, x, y, z)));
+        return Collections.unmodifiableSet(border);
+    }
+
+    /**
+     * Passes the coordinates of every border block of this region to the consumer, without allocating them. The border
+     * of polygon and cylinder regions is the border of their bounding box.
+     *
+     * @param consumer The consumer of the coordinates.
+     */
+    public void forEachBorderBlock(@NotNull BorderConsumer consumer)
+    {
+        forEachBorderBlock(Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MAX_VALUE, consumer);
+    }
+
+    /**
+     * Passes the coordinates of the border blocks of this region that are close to a location to the consumer, without
+     * allocating them. Only the part of the edges within the cube of the distance around the location are visited.
+     *
+     * @param center   The location to get the border blocks close to.
+     * @param distance The max distance in blocks from the location on each axis.
+     * @param consumer The consumer of the coordinates.
+     */
+    public void forEachBorderBlock(@NotNull Location center, int distance, @NotNull BorderConsumer consumer)
+    {
+        if (center.getWorld() != minDiagonal.getWorld()) return;
+
+        forEachBorderBlock(center.getBlockX() - distance, center.getBlockY() - distance, center.getBlockZ() - distance,
+                center.getBlockX() + distance, center.getBlockY() + distance, center.getBlockZ() + distance, consumer);
+    }
+
+    private void forEachBorderBlock(int clipMinX, int clipMinY, int clipMinZ, int clipMaxX, int clipMaxY, int clipMaxZ, @NotNull BorderConsumer consumer)
+    {
+        // The border goes around the blocks, so it ends on the far corner of the max diagonal's block.
+        int startX = minDiagonal.getBlockX();
+        int startY = minDiagonal.getBlockY();
+        int startZ = minDiagonal.getBlockZ();
+        int endX = maxDiagonal.getBlockX() + 1;
+        int endY = maxDiagonal.getBlockY() + 1;
+        int endZ = maxDiagonal.getBlockZ() + 1;
+        int[] ys = {startY, endY};
+        int[] zs = {startZ, endZ};
+        int[] xs = {startX, endX};
+
+        // Edges along X include the corners, edges along Y and Z skip them so corners are visited only once.
+        for (int y : ys)
+            for (int z : zs) {
+                if (y < clipMinY || y > clipMaxY || z < clipMinZ || z > clipMaxZ) continue;
+
+                for (int x = Math.max(startX, clipMinX), max = Math.min(endX, clipMaxX); x <= max; ++x)
+                    consumer.accept(x, y, z);
+            }
+
+        for (int x : xs)
+            for (int z : zs) {
+                if (x < clipMinX || x > clipMaxX || z < clipMinZ || z > clipMaxZ) continue;
+
+                for (int y = Math.max(startY + 1, clipMinY), max = Math.min(endY - 1, clipMaxY); y <= max; ++y)
+                    consumer.accept(x, y, z);
+            }
+
+        for (int x : xs)
+            for (int y : ys) {
+                if (x < clipMinX || x > clipMaxX || y < clipMinY || y > clipMaxY) continue;
+
+                for (int z = Math.max(startZ + 1, clipMinZ), max = Math.min(endZ - 1, clipMaxZ); z <= max; ++z)
+                    consumer.accept(x, y, z);
+            }
     }
 
     /**
@@ -314,6 +445,7 @@ public class SoundRegion
                 creationDate.equals(that.creationDate) &&
                 name.equals(that.name) &&
                 Objects.equals(description, that.description) &&
+                shape.equals(that.shape) &&
                 minDiagonal.equals(that.maxDiagonal) &&
                 minDiagonal.equals(that.minDiagonal);
     }
@@ -340,4 +472,18 @@ public class SoundRegion
     {
         return Objects.hash(id);
     }
+
+    /**
+     * Receives the coordinates of the border blocks of a region.
+     */
+    @FunctionalInterface
+    public interface BorderConsumer
+    {
+        /**
+         * @param x The X coordinate of the border block.
+         * @param y The Y coordinate of the border block.
+         * @param z The Z coordinate of the border block.
+         */
+        void accept(int x, int y, int z);
+    }
 }
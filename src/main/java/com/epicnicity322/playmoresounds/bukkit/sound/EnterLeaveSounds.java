@@ -0,0 +1,164 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.core.sound.RichSound;
+import com.epicnicity322.yamlhandler.ConfigurationSection;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The enter, leave and loop sounds of a region on regions.yml or a biome on biomes.yml, compiled once when the
+ * configuration is loaded. Only enabled sounds are kept, so a null sound means there is nothing to play.
+ */
+public final class EnterLeaveSounds
+{
+    private final @Nullable PlayableRichSound enter;
+    private final @Nullable PlayableRichSound leave;
+    private final @Nullable PlayableRichSound loop;
+    private final @Nullable StopOnExit enterStopOnExit;
+    private final @Nullable StopOnExit loopStopOnExit;
+    private final boolean enterPreventsDefaultSound;
+    private final boolean leavePreventsDefaultSound;
+    private final boolean loopPreventsDefaultSound;
+    private final boolean loopPreventsEnterSound;
+    private final long loopDelay;
+    private final long loopPeriod;
+
+    private EnterLeaveSounds(@NotNull ConfigurationSection section, @NotNull RichSound.Priority defaultPriority, boolean region)
+    {
+        ConfigurationSection enter = section.getConfigurationSection("Enter");
+        ConfigurationSection leave = section.getConfigurationSection("Leave");
+        ConfigurationSection loop = section.getConfigurationSection("Loop");
+
+        this.enter = enabledSound(enter, defaultPriority);
+        this.leave = enabledSound(leave, defaultPriority);
+        this.loop = enabledSound(loop, defaultPriority);
+        enterStopOnExit = this.enter == null ? null : StopOnExit.of(enter);
+        loopStopOnExit = this.loop == null ? null : StopOnExit.of(loop);
+        // Biomes have no default sounds to prevent.
+        enterPreventsDefaultSound = region && enter != null && enter.getBoolean("Prevent Default Sound").orElse(false);
+        leavePreventsDefaultSound = region && leave != null && leave.getBoolean("Prevent Default Sound").orElse(false);
+        loopPreventsDefaultSound = region && loop != null && loop.getBoolean("Prevent Other Sounds.Default Sound").orElse(false);
+        loopPreventsEnterSound = loop != null && loop.getBoolean(region ? "Prevent Other Sounds.Enter Sound" : "Prevent Enter Sound").orElse(false);
+        loopDelay = loop == null ? 0 : loop.getNumber("Delay").orElse(0).longValue();
+        loopPeriod = loop == null ? 0 : loop.getNumber("Period").orElse(0).longValue();
+    }
+
+    /**
+     * Compiles the sounds of a region on regions.yml. Region sounds are played with high priority, unless the sound
+     * sets its own.
+     *
+     * @param region The section of the region, with the "Enter", "Leave" and "Loop" keys.
+     * @return The compiled sounds of the region.
+     */
+    public static @NotNull EnterLeaveSounds region(@NotNull ConfigurationSection region)
+    {
+        return new EnterLeaveSounds(region, RichSound.Priority.HIGH, true);
+    }
+
+    /**
+     * Compiles the sounds of a biome on biomes.yml.
+     *
+     * @param biome The section of the biome, with the "Enter", "Leave" and "Loop" keys.
+     * @return The compiled sounds of the biome.
+     */
+    public static @NotNull EnterLeaveSounds biome(@NotNull ConfigurationSection biome)
+    {
+        return new EnterLeaveSounds(biome, RichSound.Priority.NORMAL, false);
+    }
+
+    private static @Nullable PlayableRichSound enabledSound(@Nullable ConfigurationSection section, @NotNull RichSound.Priority defaultPriority)
+    {
+        if (section == null) return null;
+
+        PlayableRichSound sound = new PlayableRichSound(section, defaultPriority);
+
+        return sound.isEnabled() ? sound : null;
+    }
+
+    public @Nullable PlayableRichSound getEnter()
+    {
+        return enter;
+    }
+
+    public @Nullable PlayableRichSound getLeave()
+    {
+        return leave;
+    }
+
+    public @Nullable PlayableRichSound getLoop()
+    {
+        return loop;
+    }
+
+    /**
+     * @return The sounds to stop when the player leaves, if they heard the enter sound.
+     */
+    public @Nullable StopOnExit getEnterStopOnExit()
+    {
+        return enterStopOnExit;
+    }
+
+    /**
+     * @return The sounds to stop when the player leaves, if they heard the loop sound.
+     */
+    public @Nullable StopOnExit getLoopStopOnExit()
+    {
+        return loopStopOnExit;
+    }
+
+    public boolean isEnterPreventingDefaultSound()
+    {
+        return enterPreventsDefaultSound;
+    }
+
+    public boolean isLeavePreventingDefaultSound()
+    {
+        return leavePreventsDefaultSound;
+    }
+
+    public boolean isLoopPreventingDefaultSound()
+    {
+        return loopPreventsDefaultSound;
+    }
+
+    public boolean isLoopPreventingEnterSound()
+    {
+        return loopPreventsEnterSound;
+    }
+
+    public long getLoopDelay()
+    {
+        return loopDelay;
+    }
+
+    public long getLoopPeriod()
+    {
+        return loopPeriod;
+    }
+
+    /**
+     * @return If no sound is enabled, so there is no reason to keep these sounds.
+     */
+    public boolean isEmpty()
+    {
+        return enter == null && leave == null && loop == null;
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.epicpluginlib.bukkit.reflection.ReflectionUtil;
+import com.epicnicity322.epicpluginlib.bukkit.reflection.type.PackageType;
+import com.epicnicity322.epicpluginlib.core.util.ObjectUtils;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.sound.SoundCategory;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Access to the net.minecraft.server classes used to send sound packets directly. Everything is looked up once, when
+ * this class is loaded, and bound to {@link MethodHandle}s so sending a packet doesn't go through reflection.
+ * <p>
+ * The connection of each player is cached until they quit.
+ */
+final class NMSSoundAccess implements Listener
+{
+    private static final @NotNull EnumMap<SoundCategory, Object> categories = new EnumMap<>(SoundCategory.class);
+    private static final @NotNull ConcurrentHashMap<UUID, Connection> connections = new ConcurrentHashMap<>();
+    private static final @Nullable MethodHandle minecraftKey_constructor;
+    private static final @Nullable MethodHandle vec3D_constructor;
+    private static final @Nullable MethodHandle packetPlayOutCustomSoundEffect_constructor;
+    private static final @Nullable MethodHandle craftPlayer_getHandle;
+    private static final @Nullable MethodHandle entityPlayer_playerConnection;
+    private static final @Nullable MethodHandle playerConnection_networkManager;
+    private static final @Nullable MethodHandle networkManager_channel;
+    private static final @Nullable MethodHandle channel_write;
+    private static final @Nullable MethodHandle channel_flush;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        MethodHandle minecraftKey = null;
+        MethodHandle vec3D = null;
+        MethodHandle packet = null;
+
+        try {
+            Class<?> packetPlayOutCustomSoundEffect_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("PacketPlayOutCustomSoundEffect", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.network.protocol.game.PacketPlayOutCustomSoundEffect"));
+            Class<?> minecraftKey_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("MinecraftKey", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.resources.MinecraftKey"));
+            Class<?> soundCategory_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("SoundCategory", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.sounds.SoundCategory"));
+            Class<?> vec3D_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("Vec3D", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.world.phys.Vec3D"));
+
+            if (packetPlayOutCustomSoundEffect_class != null && minecraftKey_class != null && soundCategory_class != null && vec3D_class != null) {
+                Method soundCategory_a_method = soundCategory_class.getMethod("a");
+                Object[] soundCategory_enumConstants = soundCategory_class.getEnumConstants();
+                HashMap<String, Object> categoriesByName = new HashMap<>();
+
+                soundCategory_a_method.setAccessible(true);
+
+                for (Object soundCategory : soundCategory_enumConstants)
+                    categoriesByName.put(soundCategory_a_method.invoke(soundCategory).toString(), soundCategory);
+
+                for (SoundCategory category : SoundCategory.values()) {
+                    Object soundCategory = categoriesByName.get(category.name().toLowerCase(Locale.ROOT));
+
+                    if (soundCategory != null) categories.put(category, soundCategory);
+                }
+
+                minecraftKey = unreflectConstructor(lookup, minecraftKey_class, MethodType.methodType(Object.class, String.class), String.class);
+                vec3D = unreflectConstructor(lookup, vec3D_class, MethodType.methodType(Object.class, double.class, double.class, double.class), double.class, double.class, double.class);
+                packet = unreflectConstructor(lookup, packetPlayOutCustomSoundEffect_class, MethodType.methodType(Object.class, Object.class, Object.class, Object.class, float.class, float.class), minecraftKey_class, soundCategory_class, vec3D_class, float.class, float.class);
+            }
+        } catch (Throwable ignored) {
+            // Packets are not available on this version, bukkit's methods are used instead.
+        }
+
+        minecraftKey_constructor = minecraftKey;
+        vec3D_constructor = vec3D;
+        packetPlayOutCustomSoundEffect_constructor = packet;
+
+        MethodHandle getHandle = null;
+        MethodHandle playerConnection = null;
+        MethodHandle networkManager = null;
+        MethodHandle channel = null;
+        MethodHandle write = null;
+        MethodHandle flush = null;
+
+        try {
+            Class<?> craftPlayer_class = Class.forName(Bukkit.getServer().getClass().getPackage().getName() + ".entity.CraftPlayer");
+            Class<?> playerConnection_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("PlayerConnection", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.server.network.PlayerConnection"));
+            Class<?> networkManager_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("NetworkManager", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.network.NetworkManager"));
+            Class<?> channel_class = Class.forName("io.netty.channel.Channel");
+
+            if (playerConnection_class != null && networkManager_class != null) {
+                Method craftPlayer_getHandle_method = craftPlayer_class.getMethod("getHandle");
+                Field entityPlayer_playerConnection_field = findField(craftPlayer_getHandle_method.getReturnType(), playerConnection_class);
+                Field playerConnection_networkManager_field = findField(playerConnection_class, networkManager_class);
+                Field networkManager_channel_field = findField(networkManager_class, channel_class);
+
+                if (entityPlayer_playerConnection_field != null && playerConnection_networkManager_field != null && networkManager_channel_field != null) {
+                    getHandle = lookup.unreflect(craftPlayer_getHandle_method).asType(MethodType.methodType(Object.class, Player.class));
+                    playerConnection = lookup.unreflectGetter(entityPlayer_playerConnection_field).asType(MethodType.methodType(Object.class, Object.class));
+                    networkManager = lookup.unreflectGetter(playerConnection_networkManager_field).asType(MethodType.methodType(Object.class, Object.class));
+                    channel = lookup.unreflectGetter(networkManager_channel_field).asType(MethodType.methodType(Object.class, Object.class));
+                    write = lookup.unreflect(channel_class.getMethod("write", Object.class)).asType(MethodType.methodType(void.class, Object.class, Object.class));
+                    flush = lookup.unreflect(channel_class.getMethod("flush")).asType(MethodType.methodType(void.class, Object.class));
+                }
+            }
+        } catch (Throwable ignored) {
+            // Connections are not accessible, packets are sent with ReflectionUtil instead.
+            getHandle = null;
+        }
+
+        craftPlayer_getHandle = getHandle;
+        entityPlayer_playerConnection = getHandle == null ? null : playerConnection;
+        playerConnection_networkManager = getHandle == null ? null : networkManager;
+        networkManager_channel = getHandle == null ? null : channel;
+        channel_write = getHandle == null ? null : write;
+        channel_flush = getHandle == null ? null : flush;
+
+        if (craftPlayer_getHandle != null) {
+            NMSSoundAccess listener = new NMSSoundAccess();
+
+            PlayMoreSounds.onEnable(() -> Bukkit.getPluginManager().registerEvents(listener, PlayMoreSounds.getInstance()));
+            PlayMoreSounds.onDisable(() -> {
+                HandlerList.unregisterAll(listener);
+                connections.clear();
+            });
+        }
+    }
+
+    private NMSSoundAccess()
+    {
+    }
+
+    private static @NotNull MethodHandle unreflectConstructor(@NotNull MethodHandles.Lookup lookup, @NotNull Class<?> clazz, @NotNull MethodType type, @NotNull Class<?>... parameters) throws ReflectiveOperationException
+    {
+        Constructor<?> constructor = clazz.getDeclaredConstructor(parameters);
+
+        constructor.setAccessible(true);
+        return lookup.unreflectConstructor(constructor).asType(type);
+    }
+
+    private static @Nullable Field findField(@NotNull Class<?> clazz, @NotNull Class<?> type)
+    {
+        for (Class<?> current = clazz; current != null && current != Object.class; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                if (type.isAssignableFrom(field.getType())) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether the sound packet and the classes it needs were found on this version.
+     *
+     * @return If sound packets can be built.
+     */
+    static boolean hasSoundPackets()
+    {
+        return packetPlayOutCustomSoundEffect_constructor != null;
+    }
+
+    /**
+     * Whether player connections are accessible, so packets can be written without being flushed.
+     *
+     * @return If {@link #getChannel(Player)} can be used.
+     */
+    static boolean hasChannelAccess()
+    {
+        return craftPlayer_getHandle != null;
+    }
+
+    /**
+     * Creates a MinecraftKey for the sound.
+     *
+     * @param sound The name of the sound.
+     * @return The MinecraftKey of the sound.
+     * @throws Throwable If the key could not be created or sound packets are not available.
+     */
+    static @NotNull Object newMinecraftKey(@NotNull String sound) throws Throwable
+    {
+        if (minecraftKey_constructor == null) throw new UnsupportedOperationException("Sound packets are not available.");
+
+        return (Object) minecraftKey_constructor.invokeExact(sound);
+    }
+
+    /**
+     * Gets the net.minecraft.server equivalent of a sound category.
+     *
+     * @param category The sound category.
+     * @return The NMS sound category, or null if sound packets are not available.
+     */
+    static @Nullable Object getCategory(@NotNull SoundCategory category)
+    {
+        return categories.get(category);
+    }
+
+    /**
+     * Creates a custom sound effect packet.
+     *
+     * @param minecraftKey The key of the sound, created by {@link #newMinecraftKey(String)}.
+     * @param category     The NMS category of the sound, from {@link #getCategory(SoundCategory)}.
+     * @return The packet.
+     * @throws Throwable If the packet could not be created or sound packets are not available.
+     */
+    static @NotNull Object newPacket(@NotNull Object minecraftKey, @Nullable Object category, double x, double y, double z, float volume, float pitch) throws Throwable
+    {
+        if (packetPlayOutCustomSoundEffect_constructor == null || vec3D_constructor == null)
+            throw new UnsupportedOperationException("Sound packets are not available.");
+
+        Object vec3D = (Object) vec3D_constructor.invokeExact(x, y, z);
+
+        return (Object) packetPlayOutCustomSoundEffect_constructor.invokeExact(minecraftKey, category, vec3D, volume, pitch);
+    }
+
+    /**
+     * Gets the netty channel of the player's connection. Channels are cached until the player quits.
+     *
+     * @param player The player to get the channel.
+     * @return The channel, or null if the player has no connection yet.
+     * @throws Throwable If the channel could not be accessed.
+     */
+    static @Nullable Object getChannel(@NotNull Player player) throws Throwable
+    {
+        if (craftPlayer_getHandle == null) throw new UnsupportedOperationException("Player connections are not accessible.");
+
+        Connection connection = connections.get(player.getUniqueId());
+
+        // A player that rejoined is a new instance with a new connection.
+        if (connection != null && connection.player == player) return connection.channel;
+
+        Object playerConnection = (Object) entityPlayer_playerConnection.invokeExact((Object) craftPlayer_getHandle.invokeExact(player));
+
+        // Players that are still logging in don't have a connection yet.
+        if (playerConnection == null) return null;
+
+        Object networkManager = (Object) playerConnection_networkManager.invokeExact(playerConnection);
+
+        if (networkManager == null) return null;
+
+        Object channel = (Object) networkManager_channel.invokeExact(networkManager);
+
+        if (channel != null && player.isOnline()) connections.put(player.getUniqueId(), new Connection(player, channel));
+
+        return channel;
+    }
+
+    /**
+     * Writes the packet to the channel without flushing it.
+     *
+     * @param channel The channel from {@link #getChannel(Player)}.
+     * @param packet  The packet to write.
+     * @throws Throwable If the packet could not be written.
+     */
+    static void write(@NotNull Object channel, @NotNull Object packet) throws Throwable
+    {
+        channel_write.invokeExact(channel, packet);
+    }
+
+    /**
+     * Flushes the packets written to the channel.
+     *
+     * @param channel The channel from {@link #getChannel(Player)}.
+     * @throws Throwable If the channel could not be flushed.
+     */
+    static void flush(@NotNull Object channel) throws Throwable
+    {
+        channel_flush.invokeExact(channel);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event)
+    {
+        connections.remove(event.getPlayer().getUniqueId());
+    }
+
+    private static final class Connection
+    {
+        private final @NotNull Player player;
+        private final @NotNull Object channel;
+
+        private Connection(@NotNull Player player, @NotNull Object channel)
+        {
+            this.player = player;
+            this.channel = channel;
+        }
+    }
+}
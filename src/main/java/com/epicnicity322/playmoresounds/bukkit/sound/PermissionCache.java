@@ -0,0 +1,175 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.config.Configurations;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * Caches the result of {@link Player#hasPermission(String)} for the permissions used by sounds, so permission plugins
+ * are not asked again for every sound played to every player.
+ * <p>
+ * The permissions are registered as sounds are loaded, each one gets an index on the bit sets kept for every player
+ * slot of {@link SpatialPlayerIndex}. The cache of a player is forgotten when they change worlds or leave their slot,
+ * and the cache of all players is forgotten every "Performance.Permission Cache Time" ticks.
+ */
+public final class PermissionCache
+{
+    private static final @NotNull HashMap<String, Node> nodes = new HashMap<>();
+    private static @NotNull BitSet[] checked = new BitSet[16];
+    private static @NotNull BitSet[] granted = new BitSet[16];
+    private static int cacheTime = 100;
+    private static int ticksSinceInvalidation = 0;
+
+    static {
+        Runnable cacheTimeUpdater = () -> {
+            cacheTime = Math.max(Configurations.CONFIG.getConfigurationHolder().getConfiguration().getNumber("Performance.Permission Cache Time").orElse(100).intValue(), 0);
+            invalidateAll();
+        };
+
+        cacheTimeUpdater.run();
+        PlayMoreSounds.onReload(cacheTimeUpdater);
+        PlayMoreSounds.onDisable(PermissionCache::invalidateAll);
+    }
+
+    private PermissionCache()
+    {
+    }
+
+    /**
+     * Forgets the cached permissions of a player. Permission plugins and addons can call this when the permissions of
+     * a player change, so the change is noticed before the cache expires.
+     *
+     * @param player The player to forget the permissions.
+     */
+    public static void invalidate(@NotNull Player player)
+    {
+        int slot = SpatialPlayerIndex.getSlot(player);
+
+        if (slot != -1) invalidate(slot);
+    }
+
+    /**
+     * Forgets the cached permissions of all players.
+     */
+    public static void invalidateAll()
+    {
+        for (BitSet bitSet : checked) if (bitSet != null) bitSet.clear();
+
+        ticksSinceInvalidation = 0;
+    }
+
+    /**
+     * Gets the node of a permission, registering it if this is the first time it's used.
+     *
+     * @param permission The permission.
+     * @return The node used to look up the permission on the cache.
+     */
+    static synchronized @NotNull Node register(@NotNull String permission)
+    {
+        Node node = nodes.get(permission);
+
+        if (node == null) {
+            node = new Node(permission, nodes.size());
+            nodes.put(permission, node);
+        }
+
+        return node;
+    }
+
+    /**
+     * Checks if the player has the permission, using the cached result if there is one.
+     *
+     * @param player The player to check.
+     * @param slot   The slot of the player in {@link SpatialPlayerIndex}, or -1 if the player has no slot.
+     * @param node   The permission to check.
+     * @return If the player has the permission.
+     */
+    static boolean hasPermission(@NotNull Player player, int slot, @NotNull Node node)
+    {
+        // Slots are only handed on main thread, and a slot copied earlier might have been given to another player.
+        if (slot == -1 || cacheTime == 0 || !Bukkit.isPrimaryThread() || !SpatialPlayerIndex.isSlotOf(player, slot))
+            return player.hasPermission(node.permission);
+
+        if (slot >= checked.length) {
+            int length = Math.max(checked.length << 1, slot + 1);
+
+            checked = Arrays.copyOf(checked, length);
+            granted = Arrays.copyOf(granted, length);
+        }
+
+        BitSet checked = PermissionCache.checked[slot];
+        BitSet granted = PermissionCache.granted[slot];
+
+        if (checked == null) {
+            checked = new BitSet();
+            granted = new BitSet();
+            PermissionCache.checked[slot] = checked;
+            PermissionCache.granted[slot] = granted;
+        } else if (checked.get(node.index)) {
+            return granted.get(node.index);
+        }
+
+        boolean hasPermission = player.hasPermission(node.permission);
+
+        checked.set(node.index);
+        granted.set(node.index, hasPermission);
+        return hasPermission;
+    }
+
+    /**
+     * Forgets the cached permissions of a slot.
+     *
+     * @param slot The slot to forget the permissions.
+     */
+    static void invalidate(int slot)
+    {
+        if (slot < checked.length && checked[slot] != null) checked[slot].clear();
+    }
+
+    /**
+     * Expires the cache if the cache time has passed. Called by {@link SoundScheduler} every tick.
+     */
+    static void nextTick()
+    {
+        if (cacheTime != 0 && ++ticksSinceInvalidation >= cacheTime) invalidateAll();
+    }
+
+    /**
+     * A permission used by sounds and its index on the bit sets of the cache.
+     */
+    static final class Node
+    {
+        final @NotNull String permission;
+        private final int index;
+
+        private Node(@NotNull String permission, int index)
+        {
+            this.permission = permission;
+            this.index = index;
+        }
+    }
+}
@@ -31,10 +31,14 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.function.BooleanSupplier;
 import java.util.function.Supplier;
 
 public class PlayableRichSound extends RichSound<PlayableSound> implements Playable
 {
+    // Players can disable the sounds of a trigger on their preferences, the trigger is the name of this rich sound.
+    private final int trigger = SoundPreferences.getTriggerId(getName());
+
     public PlayableRichSound(@NotNull String name, boolean enabled, boolean cancellable, @Nullable Collection<PlayableSound> childSounds)
     {
         super(name, enabled, cancellable, childSounds);
@@ -45,6 +49,11 @@ public class PlayableRichSound extends RichSound<PlayableSound> implements Playa
         super(section);
     }
 
+    public PlayableRichSound(@NotNull ConfigurationSection section, @NotNull Priority defaultPriority)
+    {
+        super(section, defaultPriority);
+    }
+
     @Override
     protected @NotNull PlayableSound newCoreSound(@NotNull ConfigurationSection section)
     {
@@ -53,18 +62,57 @@ public class PlayableRichSound extends RichSound<PlayableSound> implements Playa
 
     @Override
     public void play(@Nullable Player player, @NotNull Location sourceLocation)
+    {
+        play(player, sourceLocation, false);
+    }
+
+    private void play(@Nullable Player player, @NotNull Location sourceLocation, boolean deferred)
     {
         if (isEnabled() && !getChildSounds().isEmpty()) {
-            PlayRichSoundEvent event = new PlayRichSoundEvent(player, sourceLocation, this);
+            switch (SoundBudget.admit(getPriority(), deferred)) {
+                case DROP:
+                    return;
+                case DEFER:
+                    // Trying again on the next tick, the sound is dropped if the server is still overloaded.
+                    SoundScheduler.schedule(() -> play(player, sourceLocation, true), 1, null);
+                    return;
+            }
+
+            Location location = sourceLocation;
+
+            if (PlayRichSoundEvent.hasListeners()) {
+                PlayRichSoundEvent event = new PlayRichSoundEvent(player, location, this);
+
+                Bukkit.getPluginManager().callEvent(event);
+
+                if (event.isCancelled()) return;
 
-            Bukkit.getPluginManager().callEvent(event);
+                location = event.getLocation();
+            }
 
-            if (!event.isCancelled())
-                for (PlayableSound s : getChildSounds())
-                    s.play(player, event.getLocation());
+            for (PlayableSound s : getChildSounds())
+                s.play(player, location, trigger);
         }
     }
 
+    /**
+     * Plays the sound repeatedly after the time set on period, on {@link SoundLoops}.
+     * The loop will not start if this sound is disabled or has no child sounds.
+     * {@link PlayRichSoundEvent} will be called for every time the sound is played by this loop.
+     *
+     * @param player         The player to play the sound, the loop is cancelled when they leave the server.
+     * @param sourceLocation The location where the sound will play. May change depending on {@link SoundOptions#getRelativeLocation()}.
+     * @param delay          The time in ticks to wait before playing the first sound.
+     * @param period         The time in ticks to wait before playing the sound again.
+     * @param breaker        Checked before every time the sound plays, the loop is cancelled if it returns true.
+     * @return The loop that can be used to cancel it later.
+     * @throws IllegalStateException If PlayMoreSounds was not enabled yet.
+     */
+    public @NotNull SoundLoops.Loop loop(@Nullable Player player, @NotNull Supplier<Location> sourceLocation, long delay, long period, @Nullable BooleanSupplier breaker)
+    {
+        return SoundLoops.start(this, player, sourceLocation, delay, period, breaker);
+    }
+
     /**
      * Plays the sound repeatedly after the time set on period.
      * The {@link BukkitRunnable} will not run if this sound is disabled or has no child sounds.
@@ -77,7 +125,9 @@ public class PlayableRichSound extends RichSound<PlayableSound> implements Playa
      * @param breaker        A boolean that will run in the loop, if the boolean is true the loop will be cancelled.
      * @return The {@link BukkitRunnable} of the loop that can be used to cancel later.
      * @throws IllegalStateException If PlayMoreSounds was not instantiated by bukkit yet.
+     * @deprecated Every loop runs on its own bukkit task, use {@link #loop(Player, Supplier, long, long, BooleanSupplier)}.
      */
+    @Deprecated
     public @NotNull BukkitRunnable playInLoop(@Nullable Player player, @NotNull Supplier<Location> sourceLocation, long delay, long period, @Nullable Supplier<Boolean> breaker)
     {
         PlayMoreSounds main = PlayMoreSounds.getInstance();
@@ -22,7 +22,6 @@ import com.epicnicity322.epicpluginlib.bukkit.reflection.ReflectionUtil;
 import com.epicnicity322.epicpluginlib.bukkit.reflection.type.PackageType;
 import com.epicnicity322.epicpluginlib.core.logger.ConsoleLogger;
 import com.epicnicity322.epicpluginlib.core.tools.Version;
-import com.epicnicity322.epicpluginlib.core.util.ObjectUtils;
 import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
 import com.epicnicity322.playmoresounds.bukkit.sound.events.PlaySoundEvent;
 import com.epicnicity322.playmoresounds.bukkit.sound.events.PrePlaySoundEvent;
@@ -43,26 +42,21 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.lang.reflect.Constructor;
-import java.lang.reflect.Method;
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Locale;
 
 public class PlayableSound extends Sound implements Playable
 {
-    private static final @NotNull HashSet<String> blackListedWorlds = new HashSet<>();
+    private static boolean cullInaudible = false;
     private static final @NotNull Validator validator;
     private static final @NotNull SoundPlayer soundPlayer;
-    private static Object[] soundCategory_enumConstants;
-    private static Method soundCategory_a_method;
-    private static Constructor<?> minecraftKey_constructor;
+    private static final @Nullable SoundPacketBroadcaster packetBroadcaster;
 
     static {
         // PlayMoreSounds might be used on versions where GameMode.SPECTATOR is not a thing.
-        Validator noSpectator = (player, permissionRequired) -> (permissionRequired != null && !player.hasPermission(permissionRequired)) || (player.hasPotionEffect(PotionEffectType.INVISIBILITY) && player.hasPermission("playmoresounds.bypass.invisibility"));
+        PermissionCache.Node bypassInvisibility = PermissionCache.register("playmoresounds.bypass.invisibility");
+        Validator noSpectator = (player, slot, permissionRequired) -> (permissionRequired != null && !PermissionCache.hasPermission(player, slot, permissionRequired)) || (player.hasPotionEffect(PotionEffectType.INVISIBILITY) && PermissionCache.hasPermission(player, slot, bypassInvisibility));
 
         if (GameMode.values().length >= 4) {
-            validator = (player, permissionRequired) -> noSpectator.isInvalidPlayer(player, permissionRequired) || player.getGameMode() == GameMode.SPECTATOR;
+            validator = (player, slot, permissionRequired) -> noSpectator.isInvalidPlayer(player, slot, permissionRequired) || player.getGameMode() == GameMode.SPECTATOR;
         } else {
             validator = noSpectator;
         }
@@ -78,17 +72,20 @@ public class PlayableSound extends Sound implements Playable
         } catch (NoSuchMethodException ignored) {
         }
 
+        // Sending packets directly is available on every version since 1.13, regardless of bukkit's sound categories.
+        if (Configurations.CONFIG.getConfigurationHolder().getConfiguration().getBoolean("Send Packets Directly").orElse(false) && VersionUtils.getBukkitVersion().compareTo(new Version("1.13")) >= 0) {
+            packetBroadcaster = NMSSoundAccess.hasSoundPackets() ? new SoundPacketBroadcaster() : null;
+        } else {
+            packetBroadcaster = null;
+        }
+
         // Setting the sound player
         if (hasSoundCategory) {
             // Custom sounds were already a thing when sound categories were added, so no need to check again.
-            soundPlayer = (player, location, sound) -> player.playSound(location, sound.getSound(), sound.getCategory().asBukkit(), sound.getVolume(), sound.getPitch());
+            soundPlayer = (player, location, sound, volume) -> player.playSound(location, sound.getSound(), sound.getCategory().asBukkit(), volume, sound.getPitch());
         } else {
             if (hasCustomSounds) {
-                if (Configurations.CONFIG.getConfigurationHolder().getConfiguration().getBoolean("Send Packets Directly").orElse(false) && VersionUtils.getBukkitVersion().compareTo(new Version("1.13")) >= 0) {
-                    soundPlayer = getPacketSoundPlayer();
-                } else {
-                    soundPlayer = (player, location, sound) -> player.playSound(location, sound.getSound(), sound.getVolume(), sound.getPitch());
-                }
+                soundPlayer = (player, location, sound, volume) -> player.playSound(location, sound.getSound(), volume, sound.getPitch());
             } else {
                 // Versions before Player#playSound(Location,String,float,float) used to have Packet62NamedSoundEffect, sending packet manually.
                 Class<?> packet62NamedSoundEffect_class = ReflectionUtil.getClass("Packet62NamedSoundEffect", PackageType.MINECRAFT_SERVER);
@@ -104,9 +101,9 @@ public class PlayableSound extends Sound implements Playable
 
                 Constructor<?> finalPacket62NamedSoundEffect_constructor = packet62NamedSoundEffect_constructor;
 
-                soundPlayer = (player, location, sound) -> {
+                soundPlayer = (player, location, sound, volume) -> {
                     try {
-                        ReflectionUtil.sendPacket(player, finalPacket62NamedSoundEffect_constructor.newInstance(sound.getSound(), location.getX() + 0.5, location.getY() + 0.5, location.getZ() + 0.5, sound.getVolume(), sound.getPitch()));
+                        ReflectionUtil.sendPacket(player, finalPacket62NamedSoundEffect_constructor.newInstance(sound.getSound(), location.getX() + 0.5, location.getY() + 0.5, location.getZ() + 0.5, volume, sound.getPitch()));
                     } catch (Exception e) {
                         e.printStackTrace();
                     }
@@ -114,21 +111,14 @@ public class PlayableSound extends Sound implements Playable
             }
         }
 
-        // Updating blackListedWorlds, this way it doesn't need to read from config when playing a sound.
-        Runnable blackListedWorldsUpdater = () -> {
-            synchronized (blackListedWorlds) {
-                blackListedWorlds.clear();
-                blackListedWorlds.addAll(Configurations.CONFIG.getConfigurationHolder().getConfiguration().getCollection("World Black List", Object::toString));
-            }
-        };
+        Runnable cullInaudibleUpdater = () -> cullInaudible = Configurations.CONFIG.getConfigurationHolder().getConfiguration().getBoolean("Performance.Cull Inaudible Sounds").orElse(false);
 
-        blackListedWorldsUpdater.run();
-        PlayMoreSounds.onReload(blackListedWorldsUpdater);
+        cullInaudibleUpdater.run();
+        PlayMoreSounds.onReload(cullInaudibleUpdater);
     }
 
-    private Object minecraftKeySound;
-    private Object soundCategory;
     private PlayMoreSounds plugin = PlayMoreSounds.getInstance();
+    private SoundPlan plan;
 
     public PlayableSound(@NotNull String sound, @Nullable SoundCategory category, float volume, float pitch, long delay, @Nullable SoundOptions options)
     {
@@ -137,6 +127,8 @@ public class PlayableSound extends Sound implements Playable
         if (delay > 0 && plugin == null) {
             throw new UnsupportedOperationException("PlayMoreSounds must be enabled to play delayed sounds.");
         }
+
+        getPlan();
     }
 
     public PlayableSound(@NotNull ConfigurationSection section)
@@ -146,101 +138,81 @@ public class PlayableSound extends Sound implements Playable
         if (getDelay() > 0 && plugin == null) {
             throw new UnsupportedOperationException("PlayMoreSounds must be enabled to play delayed sounds.");
         }
-    }
-
-    private static @NotNull SoundPlayer getPacketSoundPlayer()
-    {
-        SoundPlayer defaultSoundPlayer = (player, location, sound) -> player.playSound(location, sound.getSound(), sound.getVolume(), sound.getPitch());
-
-        try {
-            Class<?> packetPlayOutCustomSoundEffect_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("PacketPlayOutCustomSoundEffect", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.network.protocol.game.PacketPlayOutCustomSoundEffect"));
-            Class<?> minecraftKey_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("MinecraftKey", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.resources.MinecraftKey"));
-            Class<?> soundCategory_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("SoundCategory", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.sounds.SoundCategory"));
-            Class<?> vec3D_class = ObjectUtils.getOrDefault(ReflectionUtil.getClass("Vec3D", PackageType.MINECRAFT_SERVER), ReflectionUtil.getClass("net.minecraft.world.phys.Vec3D"));
 
-            if (packetPlayOutCustomSoundEffect_class == null || minecraftKey_class == null || soundCategory_class == null || vec3D_class == null)
-                return defaultSoundPlayer;
-
-            soundCategory_a_method = soundCategory_class.getMethod("a");
-            soundCategory_enumConstants = soundCategory_class.getEnumConstants();
-
-            if (soundCategory_a_method == null || soundCategory_enumConstants == null) return defaultSoundPlayer;
-
-            // Removing checks for security, making instantiation faster.
-            soundCategory_a_method.setAccessible(true);
-
-            Constructor<?> packetPlayOutCustomSoundEffect_constructor = ReflectionUtil.getConstructor(packetPlayOutCustomSoundEffect_class, minecraftKey_class, soundCategory_class, vec3D_class, float.class, float.class);
-            minecraftKey_constructor = ReflectionUtil.getConstructor(minecraftKey_class, String.class);
-            Constructor<?> vec3D_constructor = ReflectionUtil.getConstructor(vec3D_class, double.class, double.class, double.class);
-
-            if (packetPlayOutCustomSoundEffect_constructor == null || minecraftKey_constructor == null || vec3D_constructor == null)
-                return defaultSoundPlayer;
-
-            // Removing checks for security, making instantiation faster.
-            packetPlayOutCustomSoundEffect_constructor.setAccessible(true);
-            vec3D_constructor.setAccessible(true);
-
-            return (player, location, sound) -> {
-                try {
-                    ReflectionUtil.sendPacket(player, packetPlayOutCustomSoundEffect_constructor.newInstance(sound.minecraftKeySound, sound.soundCategory, vec3D_constructor.newInstance(location.getX(), location.getY(), location.getZ()), sound.getVolume(), sound.getPitch()));
-                } catch (Exception e) {
-                    PlayMoreSounds.getConsoleLogger().log("Could not play '" + sound.getSound() + "' using reflection. Please disable 'Send Packets Directly' in config.", ConsoleLogger.Level.WARN);
-                    PlayMoreSoundsCore.getErrorHandler().report(e, "Send Sound Packet Exception:");
-                }
-            };
-        } catch (Exception e) {
-            return defaultSoundPlayer;
-        }
+        getPlan();
     }
 
     @Override
     public void setSound(@NotNull String sound)
     {
         super.setSound(sound);
-
-        if (minecraftKey_constructor == null) return;
-
-        try {
-            minecraftKeySound = minecraftKey_constructor.newInstance(getSound());
-        } catch (Exception e) {
-            PlayMoreSounds.getConsoleLogger().log("Failed to create a MinecraftKey to the sound '" + sound + "'. Please disable 'Send Packets Directly' in config.", ConsoleLogger.Level.WARN);
-            PlayMoreSoundsCore.getErrorHandler().report(e, "MinecraftKey instantiation exception:");
-        }
+        plan = null;
     }
 
     @Override
     public void setSoundType(@NotNull SoundType soundType)
     {
         super.setSoundType(soundType);
-
-        if (minecraftKey_constructor == null) return;
-
-        try {
-            minecraftKeySound = minecraftKey_constructor.newInstance(getSound());
-        } catch (Exception e) {
-            PlayMoreSounds.getConsoleLogger().log("Failed to create a MinecraftKey to the sound '" + getSound() + "'. Please disable 'Send Packets Directly' in config.", ConsoleLogger.Level.WARN);
-            PlayMoreSoundsCore.getErrorHandler().report(e, "MinecraftKey instantiation exception:");
-        }
+        plan = null;
     }
 
     @Override
     public void setCategory(@Nullable SoundCategory category)
     {
         super.setCategory(category);
+        plan = null;
+    }
+
+    @Override
+    public void setVolume(float volume)
+    {
+        super.setVolume(volume);
+        plan = null;
+    }
 
-        if (soundCategory_a_method == null || soundCategory_enumConstants == null) return;
+    @Override
+    public void setOptions(@Nullable SoundOptions options)
+    {
+        super.setOptions(options);
+        plan = null;
+    }
 
-        for (Object soundCategory : soundCategory_enumConstants) {
-            try {
-                String name = soundCategory_a_method.invoke(soundCategory).toString();
+    /**
+     * Gets the plan used to play this sound. A new plan is compiled if this sound or its options were changed since
+     * the last one was compiled.
+     *
+     * @return The up to date plan of this sound.
+     */
+    @NotNull SoundPlan getPlan()
+    {
+        SoundPlan plan = this.plan;
+        SoundOptions options = getOptions();
 
-                if (getCategory().name().toLowerCase(Locale.ROOT).equals(name)) {
-                    this.soundCategory = soundCategory;
-                    break;
-                }
-            } catch (Exception ignored) {
+        if (plan == null || !plan.isUpToDate(options)) {
+            plan = compilePlan(options);
+            this.plan = plan;
+        }
+
+        return plan;
+    }
+
+    private @NotNull SoundPlan compilePlan(@NotNull SoundOptions options)
+    {
+        Object minecraftKey = null;
+        Object nmsCategory = null;
+
+        if (packetBroadcaster != null) {
+            try {
+                minecraftKey = NMSSoundAccess.newMinecraftKey(getSound());
+            } catch (Throwable e) {
+                PlayMoreSounds.getConsoleLogger().log("Failed to create a MinecraftKey to the sound '" + getSound() + "'. Please disable 'Send Packets Directly' in config.", ConsoleLogger.Level.WARN);
+                PlayMoreSoundsCore.getErrorHandler().report(e, "MinecraftKey instantiation exception:");
             }
+
+            nmsCategory = NMSSoundAccess.getCategory(getCategory());
         }
+
+        return new SoundPlan(options, getVolume(), minecraftKey, nmsCategory);
     }
 
     @Override
@@ -258,47 +230,156 @@ public class PlayableSound extends Sound implements Playable
     @Override
     public void play(@Nullable Player player, @NotNull Location sourceLocation)
     {
-        PrePlaySoundEvent preEvent = new PrePlaySoundEvent(player, sourceLocation, this);
+        play(player, sourceLocation, -1);
+    }
+
+    /**
+     * Plays the sound the same way as {@link #play(Player, Location)}, but returns the task of the sound if it has a
+     * delay, so it can be cancelled before it plays.
+     *
+     * @param player         The player to play the sound.
+     * @param sourceLocation The location where the sound will play. May change depending on {@link SoundOptions#getRelativeLocation()}.
+     * @return The task that plays the sound, or null if the sound has no delay or was not played.
+     * @throws IllegalStateException If the sound has a delay and PlayMoreSounds was not enabled yet.
+     */
+    public @Nullable SoundScheduler.Handle playDelayed(@Nullable Player player, @NotNull Location sourceLocation)
+    {
+        return play(player, sourceLocation, -1);
+    }
+
+    /**
+     * Plays the sound on behalf of a trigger, so players who disabled the trigger in their {@link SoundPreferences}
+     * don't hear it.
+     *
+     * @param player         The player to play the sound.
+     * @param sourceLocation The location where the sound will play.
+     * @param trigger        The id of the trigger playing this sound, or -1 if it was not played by a trigger.
+     * @return The task that plays the sound, or null if the sound has no delay or was not played.
+     */
+    @Nullable SoundScheduler.Handle play(@Nullable Player player, @NotNull Location sourceLocation, int trigger)
+    {
+        // Most servers have no listeners for the sound events, so they are only created when something listens to them.
+        if (PrePlaySoundEvent.hasListeners()) {
+            PrePlaySoundEvent preEvent = new PrePlaySoundEvent(player, sourceLocation, this);
+
+            Bukkit.getPluginManager().callEvent(preEvent);
+
+            if (preEvent.isCancelled()) return null;
+
+            sourceLocation = preEvent.getLocation();
+        }
 
-        Bukkit.getPluginManager().callEvent(preEvent);
+        SoundPlan plan = getPlan();
+
+        int playerSlot = player == null ? -1 : SpatialPlayerIndex.getSlot(player);
 
         // Validating if the sound should be played for this player.
-        if (preEvent.isCancelled() || (player != null && validator.isInvalidPlayer(player, getOptions().getPermissionRequired())))
-            return;
+        if (player != null && validator.isInvalidPlayer(player, playerSlot, plan.permissionRequired)) return null;
+
+        Location soundLocation = plan.addRelativeLocation(sourceLocation);
+        double radiusSquared = plan.radiusSquared;
+
+        // Sounds that play relative to each listener are culled when played, each listener might be on a world with a
+        // different volume multiplier.
+        if (cullInaudible) {
+            switch (plan.radiusMode) {
+                case SOURCE:
+                    if (player != null && player.getWorld() == soundLocation.getWorld() && player.getLocation().distanceSquared(soundLocation)
+                            > plan.getAudibleDistanceSquared(SpatialPlayerIndex.getPolicy(player, playerSlot).getVolumeMultiplier()))
+                        return null;
+                    break;
+                case RANGE:
+                    // Players farther than the sound can be heard don't need to be collected.
+                    radiusSquared = Math.min(radiusSquared, plan.getAudibleDistanceSquared(WorldPolicy.of(soundLocation.getWorld()).getVolumeMultiplier()));
+                    break;
+            }
+        }
 
-        Location soundLocation = SoundManager.addRelativeLocation(preEvent.getLocation(), getOptions().getRelativeLocation());
-        Collection<Player> players = SoundManager.getInRange(getOptions().getRadiusSquared(), soundLocation);
+        // Delayed sounds keep their recipients until they play, so they can't use a pooled buffer.
+        RecipientBuffer players = getDelay() == 0 ? RecipientBuffer.obtain() : new RecipientBuffer();
 
-        if (player != null && getOptions().getRadiusSquared() == 0) players.add(player);
+        SoundManager.collectInRange(radiusSquared, soundLocation, players);
+
+        if (player != null && plan.radiusMode == SoundPlan.RadiusMode.SOURCE)
+            players.add(player, playerSlot);
 
         if (getDelay() == 0) {
-            play(player, players, soundLocation);
-        } else {
-            Bukkit.getScheduler().runTaskLater(plugin, () -> play(player, players, soundLocation), getDelay());
+            try {
+                play(plan, player, players, soundLocation, trigger);
+            } finally {
+                RecipientBuffer.recycle(players);
+            }
+
+            return null;
         }
+
+        // Sounds heard by a single player are cancelled when they leave, other sounds skip the players who left.
+        if (players.size() == 1)
+            return SoundScheduler.schedule(() -> play(plan, player, players, soundLocation, trigger), getDelay(), players.get(0));
+
+        return SoundScheduler.schedule(() -> {
+            players.removeOffline();
+            play(plan, player, players, soundLocation, trigger);
+        }, getDelay(), null);
     }
 
-    private void play(@Nullable Player sourcePlayer, @NotNull Collection<Player> players, @NotNull Location soundLocation)
+    private void play(@NotNull SoundPlan plan, @Nullable Player sourcePlayer, @NotNull RecipientBuffer players, @NotNull Location soundLocation, int trigger)
     {
-        SoundOptions options = getOptions();
+        boolean callEvent = PlaySoundEvent.hasListeners();
+        boolean relativeToListener = plan.radiusMode.isRelativeToListener();
+        // The sound plays at each player's location, it is only inaudible if the offset is too far.
+        boolean cullByOffset = cullInaudible && relativeToListener && plan.hasRelativeLocation;
+        // Packets are built once per position and shared by every recipient at that position.
+        SoundPacketBroadcaster.Broadcast broadcast = packetBroadcaster == null || plan.minecraftKey == null ? null : packetBroadcaster.begin(this, plan);
+
+        SoundCategory category = getCategory();
+
+        try {
+            for (int i = 0; i < players.size(); ++i) {
+                Player inRange = players.get(i);
+                WorldPolicy policy = SpatialPlayerIndex.getPolicy(inRange, players.getSlot(i));
 
-        for (Player inRange : players) {
-            if (!blackListedWorlds.contains(inRange.getWorld().getName())
-                    && (options.ignoresDisabled() || SoundManager.getSoundsState(inRange))
-                    && (options.getPermissionToListen() == null || inRange.hasPermission(options.getPermissionToListen()))
-                    && (sourcePlayer == null || inRange.canSee(sourcePlayer))) {
-                Location fixedLocation = soundLocation;
+                if (cullByOffset && plan.relativeDistanceSquared > plan.getAudibleDistanceSquared(policy.getVolumeMultiplier()))
+                    continue;
 
-                if (options.getRadius() < 0)
-                    fixedLocation = SoundManager.addRelativeLocation(inRange.getLocation(), options.getRelativeLocation());
+                if (policy.allows(category)
+                        && (plan.ignoresDisabled || SoundPreferences.allows(inRange, players.getSlot(i), category, trigger))
+                        && (plan.permissionToListen == null || PermissionCache.hasPermission(inRange, players.getSlot(i), plan.permissionToListen))
+                        && (sourcePlayer == null || inRange.canSee(sourcePlayer))) {
+                    Location fixedLocation = relativeToListener ? plan.addRelativeLocation(inRange.getLocation()) : soundLocation;
 
-                PlaySoundEvent event = new PlaySoundEvent(this, inRange, fixedLocation, players, sourcePlayer, soundLocation);
+                    float volume = getVolume() * policy.getVolumeMultiplier();
 
-                Bukkit.getPluginManager().callEvent(event);
+                    // Identical sounds sent to the same player on the same tick are only heard once, the event is not
+                    // called for the dropped copies.
+                    if (SoundCoalescer.isDuplicate(inRange, this, fixedLocation, volume)) continue;
 
-                if (!event.isCancelled())
-                    soundPlayer.play(inRange, event.getLocation(), this);
+                    if (callEvent) {
+                        PlaySoundEvent event = new PlaySoundEvent(this, inRange, fixedLocation, players, sourcePlayer, soundLocation);
+
+                        Bukkit.getPluginManager().callEvent(event);
+
+                        if (event.isCancelled()) continue;
+
+                        fixedLocation = event.getLocation();
+
+                        // Listeners might have moved the sound to where it was already sent.
+                        if (SoundCoalescer.isDuplicate(inRange, this, fixedLocation, volume)) continue;
+                    }
+
+                    SoundCoalescer.sent(inRange, this, fixedLocation, volume);
+
+                    if (broadcast == null) {
+                        soundPlayer.play(inRange, fixedLocation, this, volume);
+                    } else {
+                        broadcast.send(inRange, fixedLocation, volume);
+                    }
+
+                    SoundBudget.consume();
+                }
             }
+        } finally {
+            if (broadcast != null) broadcast.end();
         }
     }
 
@@ -310,8 +391,9 @@ public class PlayableSound extends Sound implements Playable
          * @param player   The player to play the sound.
          * @param location The location the sound should be played at.
          * @param pmsSound The sound to play.
+         * @param volume   The volume to play the sound, with the world's multiplier applied.
          */
-        void play(@NotNull Player player, @NotNull Location location, @NotNull PlayableSound pmsSound);
+        void play(@NotNull Player player, @NotNull Location location, @NotNull PlayableSound pmsSound, float volume);
     }
 
     private interface Validator
@@ -320,9 +402,10 @@ public class PlayableSound extends Sound implements Playable
          * Validates if the sound should be played to the {@param player}.
          *
          * @param player             The player to validate.
+         * @param slot               The slot of the player, to look up cached permissions.
          * @param permissionRequired The permission required to check if the player has it.
          * @return If the sound should be played.
          */
-        boolean isInvalidPlayer(@NotNull Player player, @Nullable String permissionRequired);
+        boolean isInvalidPlayer(@NotNull Player player, int slot, @Nullable PermissionCache.Node permissionRequired);
     }
 }
\ No newline at end of file
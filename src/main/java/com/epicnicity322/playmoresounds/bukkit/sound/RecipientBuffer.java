@@ -0,0 +1,156 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A growable array of players that receive a sound. Buffers are pooled on the main thread, so playing a sound does not
+ * need to allocate a new collection of recipients every time.
+ */
+final class RecipientBuffer extends AbstractCollection<Player>
+{
+    private static final int MAX_POOLED = 8;
+    private static final @NotNull ArrayDeque<RecipientBuffer> pool = new ArrayDeque<>(MAX_POOLED);
+    private @NotNull Player[] players = new Player[16];
+    private int[] slots = new int[16];
+    private int size = 0;
+
+    /**
+     * Gets an empty buffer from the pool, or a new one if the pool is empty or this is not the main thread.
+     *
+     * @return An empty buffer.
+     */
+    static @NotNull RecipientBuffer obtain()
+    {
+        if (Bukkit.isPrimaryThread()) {
+            RecipientBuffer buffer = pool.poll();
+
+            if (buffer != null) return buffer;
+        }
+
+        return new RecipientBuffer();
+    }
+
+    /**
+     * Clears the buffer and returns it to the pool. The buffer must not be used after being recycled.
+     *
+     * @param buffer The buffer to recycle.
+     */
+    static void recycle(@NotNull RecipientBuffer buffer)
+    {
+        buffer.clear();
+
+        if (Bukkit.isPrimaryThread() && pool.size() < MAX_POOLED) pool.push(buffer);
+    }
+
+    /**
+     * Removes the players who left the server since they were added, keeping the order of the others.
+     */
+    void removeOffline()
+    {
+        int kept = 0;
+
+        for (int i = 0; i < size; ++i) {
+            if (!players[i].isOnline()) continue;
+
+            players[kept] = players[i];
+            slots[kept++] = slots[i];
+        }
+
+        Arrays.fill(players, kept, size, null);
+        size = kept;
+    }
+
+    @NotNull Player get(int index)
+    {
+        return players[index];
+    }
+
+    /**
+     * @param index The index of the player.
+     * @return The slot of the player in {@link SpatialPlayerIndex}, or -1 if the player was added without a slot.
+     */
+    int getSlot(int index)
+    {
+        return slots[index];
+    }
+
+    @Override
+    public boolean add(@NotNull Player player)
+    {
+        add(player, -1);
+        return true;
+    }
+
+    void add(@NotNull Player player, int slot)
+    {
+        if (size == players.length) {
+            players = Arrays.copyOf(players, size << 1);
+            slots = Arrays.copyOf(slots, size << 1);
+        }
+
+        players[size] = player;
+        slots[size++] = slot;
+    }
+
+    @Override
+    public void clear()
+    {
+        Arrays.fill(players, 0, size, null);
+        size = 0;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public @NotNull Iterator<Player> iterator()
+    {
+        return new Iterator<Player>()
+        {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return index < size;
+            }
+
+            @Override
+            public Player next()
+            {
+                if (index >= size) throw new NoSuchElementException();
+
+                return players[index++];
+            }
+        };
+    }
+}
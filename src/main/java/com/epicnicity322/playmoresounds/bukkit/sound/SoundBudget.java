@@ -0,0 +1,201 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.epicpluginlib.bukkit.reflection.ReflectionUtil;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.config.Configurations;
+import com.epicnicity322.playmoresounds.core.sound.RichSound;
+import com.epicnicity322.yamlhandler.Configuration;
+import org.bukkit.Bukkit;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.Method;
+
+/**
+ * Sheds rich sounds by their {@link RichSound.Priority} when the server is overloaded. The server is overloaded when
+ * the sounds sent on this tick reach the limit set on config, or when the average tick time is higher than the max
+ * tick time set on config.
+ * <p>
+ * Tick times are taken from PaperMC's ServerTickEndEvent. On other servers the average time between ticks is used
+ * instead, so only tick times higher than 50ms can be noticed.
+ */
+public final class SoundBudget
+{
+    // How much the last tick time weighs on the average.
+    private static final double SMOOTHING = 0.1;
+    private static final @NotNull Listener tickEndListener = new Listener()
+    {
+    };
+    private static int sendsPerTick = 0;
+    private static double maxTickTime = 0.0;
+    private static boolean measuringTickEnd = false;
+    private static long lastTickStart = 0;
+    private static double averageTickTime = 50.0;
+    private static int sendsThisTick = 0;
+    private static int sendsLastTick = 0;
+    private static long dropped = 0;
+    private static long deferred = 0;
+
+    static {
+        Runnable configUpdater = () -> {
+            Configuration config = Configurations.CONFIG.getConfigurationHolder().getConfiguration();
+
+            sendsPerTick = Math.max(config.getNumber("Performance.Budget.Sounds Per Tick").orElse(0).intValue(), 0);
+            maxTickTime = Math.max(config.getNumber("Performance.Budget.Max Tick Time").orElse(0.0).doubleValue(), 0.0);
+        };
+
+        configUpdater.run();
+        PlayMoreSounds.onReload(configUpdater);
+
+        Class<?> serverTickEndEvent_class = ReflectionUtil.getClass("com.destroystokyo.paper.event.server.ServerTickEndEvent");
+
+        if (serverTickEndEvent_class != null && Event.class.isAssignableFrom(serverTickEndEvent_class)) {
+            try {
+                Method serverTickEndEvent_getTickDuration_method = serverTickEndEvent_class.getMethod("getTickDuration");
+
+                PlayMoreSounds.onEnable(() -> {
+                    Bukkit.getPluginManager().registerEvent(serverTickEndEvent_class.asSubclass(Event.class), tickEndListener, EventPriority.MONITOR, (listener, event) -> {
+                        try {
+                            measure(((Number) serverTickEndEvent_getTickDuration_method.invoke(event)).doubleValue());
+                        } catch (Exception ignored) {
+                        }
+                    }, PlayMoreSounds.getInstance());
+                    measuringTickEnd = true;
+                });
+                PlayMoreSounds.onDisable(() -> {
+                    HandlerList.unregisterAll(tickEndListener);
+                    measuringTickEnd = false;
+                });
+            } catch (NoSuchMethodException ignored) {
+            }
+        }
+    }
+
+    private SoundBudget()
+    {
+    }
+
+    /**
+     * @return The amount of rich sounds dropped since PlayMoreSounds was enabled.
+     */
+    public static long getDroppedCount()
+    {
+        return dropped;
+    }
+
+    /**
+     * @return The amount of rich sounds delayed by a tick since PlayMoreSounds was enabled.
+     */
+    public static long getDeferredCount()
+    {
+        return deferred;
+    }
+
+    /**
+     * @return The amount of sounds sent to players on the last tick.
+     */
+    public static int getSendsLastTick()
+    {
+        return sendsLastTick;
+    }
+
+    /**
+     * @return The average time in milliseconds the last ticks took.
+     */
+    public static double getAverageTickTime()
+    {
+        return averageTickTime;
+    }
+
+    /**
+     * @return If the server is overloaded and sounds without high priority are being shed.
+     */
+    public static boolean isOverloaded()
+    {
+        if (sendsPerTick != 0 && sendsThisTick >= sendsPerTick) return true;
+        if (maxTickTime == 0.0) return false;
+
+        // The time between ticks is never lower than 50ms, so it can only tell lag apart.
+        return averageTickTime > (measuringTickEnd ? maxTickTime : Math.max(maxTickTime, 51.0));
+    }
+
+    /**
+     * Decides what to do with a rich sound about to play.
+     *
+     * @param priority The priority of the rich sound.
+     * @param deferred If the sound was already delayed by a tick.
+     * @return Whether the sound should be played, delayed by a tick or dropped.
+     */
+    static @NotNull Admission admit(@NotNull RichSound.Priority priority, boolean deferred)
+    {
+        // Budget is only kept on the main thread, where the scheduler that defers sounds runs.
+        if (priority == RichSound.Priority.HIGH || !SoundScheduler.isLoaded() || !Bukkit.isPrimaryThread() || !isOverloaded())
+            return Admission.PLAY;
+
+        if (priority == RichSound.Priority.LOW || deferred) {
+            ++dropped;
+            return Admission.DROP;
+        }
+
+        ++SoundBudget.deferred;
+        return Admission.DEFER;
+    }
+
+    /**
+     * Counts a sound sent to a player on this tick.
+     */
+    static void consume()
+    {
+        ++sendsThisTick;
+    }
+
+    /**
+     * Resets the sounds sent and measures the time between ticks. Called by {@link SoundScheduler} every tick.
+     */
+    static void nextTick()
+    {
+        sendsLastTick = sendsThisTick;
+        sendsThisTick = 0;
+
+        if (measuringTickEnd) return;
+
+        long now = System.nanoTime();
+
+        if (lastTickStart != 0) measure((now - lastTickStart) / 1_000_000.0);
+
+        lastTickStart = now;
+    }
+
+    private static void measure(double tickTime)
+    {
+        averageTickTime += (tickTime - averageTickTime) * SMOOTHING;
+    }
+
+    enum Admission
+    {
+        PLAY,
+        DEFER,
+        DROP
+    }
+}
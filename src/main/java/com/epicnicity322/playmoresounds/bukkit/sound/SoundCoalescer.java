@@ -0,0 +1,190 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.config.Configurations;
+import com.epicnicity322.playmoresounds.core.sound.SoundCategory;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+
+/**
+ * Drops sounds that were already sent to the same player on the same tick. Mob farms and fast clicking can play the
+ * same sound at the same place many times in a tick, but the player can only hear it once.
+ * <p>
+ * Sends are identical when they have the same player, sound, category, pitch and position, as it is sent to the client
+ * in eighths of a block. Packets can't be taken back once sent, so a duplicate is still sent if it is louder than the
+ * ones sent before it, and the client plays both.
+ */
+public final class SoundCoalescer
+{
+    private static final @NotNull HashMap<Send, Send> sentThisTick = new HashMap<>();
+    // Reused to look up sends, coalescing only happens on the main thread.
+    private static final @NotNull Send lookup = new Send();
+    private static boolean enabled = true;
+    private static int droppedLastTick = 0;
+    private static int droppedThisTick = 0;
+    private static long dropped = 0;
+
+    static {
+        Runnable enabledUpdater = () -> enabled = Configurations.CONFIG.getConfigurationHolder().getConfiguration().getBoolean("Performance.Coalesce Sounds").orElse(true);
+
+        enabledUpdater.run();
+        PlayMoreSounds.onReload(enabledUpdater);
+        PlayMoreSounds.onDisable(SoundCoalescer::nextTick);
+    }
+
+    private SoundCoalescer()
+    {
+    }
+
+    /**
+     * @return The amount of duplicate sounds dropped since PlayMoreSounds was enabled.
+     */
+    public static long getDroppedCount()
+    {
+        return dropped;
+    }
+
+    /**
+     * @return The amount of duplicate sounds dropped on the last tick.
+     */
+    public static int getDroppedLastTick()
+    {
+        return droppedLastTick;
+    }
+
+    /**
+     * Checks whether the sound was already sent to the player on this tick, with the same or louder volume.
+     *
+     * @param player   The player who will hear the sound.
+     * @param sound    The sound to send.
+     * @param location The location the sound will be played at.
+     * @param volume   The volume the sound will be played with.
+     * @return true if this sound should be dropped.
+     */
+    static boolean isDuplicate(@NotNull Player player, @NotNull PlayableSound sound, @NotNull Location location, float volume)
+    {
+        // Ticks are only tracked by the scheduler on the main thread.
+        if (!enabled || !SoundScheduler.isLoaded() || !Bukkit.isPrimaryThread()) return false;
+
+        lookup.set(player, sound.getSound(), sound.getCategory(), location, sound.getPitch());
+
+        Send sent = sentThisTick.get(lookup);
+
+        if (sent == null || volume > sent.volume) return false;
+
+        ++droppedThisTick;
+        ++dropped;
+        return true;
+    }
+
+    /**
+     * Registers the sound as sent to the player on this tick, so identical sounds that are not louder are dropped.
+     *
+     * @param player   The player who heard the sound.
+     * @param sound    The sound that was sent.
+     * @param location The location the sound was played at.
+     * @param volume   The volume the sound was played with.
+     */
+    static void sent(@NotNull Player player, @NotNull PlayableSound sound, @NotNull Location location, float volume)
+    {
+        if (!enabled || !SoundScheduler.isLoaded() || !Bukkit.isPrimaryThread()) return;
+
+        lookup.set(player, sound.getSound(), sound.getCategory(), location, sound.getPitch());
+
+        Send sent = sentThisTick.get(lookup);
+
+        if (sent == null) {
+            sent = new Send();
+            sent.set(player, sound.getSound(), sound.getCategory(), location, sound.getPitch());
+            sentThisTick.put(sent, sent);
+        } else if (volume <= sent.volume) {
+            return;
+        }
+
+        sent.volume = volume;
+    }
+
+    /**
+     * Forgets the sounds sent on the tick that ended. Called by {@link SoundScheduler} every tick.
+     */
+    static void nextTick()
+    {
+        if (!sentThisTick.isEmpty()) sentThisTick.clear();
+
+        droppedLastTick = droppedThisTick;
+        droppedThisTick = 0;
+    }
+
+    private static final class Send
+    {
+        private Player player;
+        private String sound;
+        private SoundCategory category;
+        private int x;
+        private int y;
+        private int z;
+        private float pitch;
+        private float volume;
+        private int hash;
+
+        private void set(@NotNull Player player, @NotNull String sound, @NotNull SoundCategory category, @NotNull Location location, float pitch)
+        {
+            this.player = player;
+            this.sound = sound;
+            this.category = category;
+            this.pitch = pitch;
+            x = (int) (location.getX() * 8.0);
+            y = (int) (location.getY() * 8.0);
+            z = (int) (location.getZ() * 8.0);
+
+            int hash = System.identityHashCode(player);
+
+            hash = hash * 31 + sound.hashCode();
+            hash = hash * 31 + category.hashCode();
+            hash = hash * 31 + x;
+            hash = hash * 31 + y;
+            hash = hash * 31 + z;
+            this.hash = hash * 31 + Float.floatToIntBits(pitch);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof Send)) return false;
+
+            Send send = (Send) o;
+
+            return player == send.player && x == send.x && y == send.y && z == send.z && pitch == send.pitch
+                    && category == send.category && sound.equals(send.sound);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Plays sounds in loop, like the loop sounds of regions and biomes, without a bukkit task for every loop. Loops are
+ * driven by {@link SoundScheduler}'s task and kept in buckets by period, each bucket is a queue of loops ordered by the
+ * tick they play next, so a tick only visits the loops that are due.
+ * <p>
+ * The loops of a player are also kept together, so they can be counted and cancelled without going through every loop.
+ * Loops of players who are no longer online are cancelled automatically.
+ */
+public final class SoundLoops
+{
+    private static final @NotNull HashMap<Long, Bucket> buckets = new HashMap<>();
+    private static final @NotNull HashMap<UUID, ArrayList<Loop>> loopsByPlayer = new HashMap<>();
+    private static int active = 0;
+
+    static {
+        PlayMoreSounds.onDisable(() -> {
+            for (Bucket bucket : buckets.values())
+                while (bucket.size != 0) bucket.poll().state = Loop.DONE;
+
+            for (ArrayList<Loop> loops : loopsByPlayer.values())
+                for (Loop loop : loops) loop.state = Loop.DONE;
+
+            buckets.clear();
+            loopsByPlayer.clear();
+            active = 0;
+        });
+    }
+
+    private SoundLoops()
+    {
+    }
+
+    /**
+     * Starts playing a sound in loop. The loop does not start if the sound is disabled or has no child sounds.
+     *
+     * @param sound          The sound to play.
+     * @param player         The player to play the sound, the loop is cancelled when they leave the server.
+     * @param sourceLocation The location where the sound will play, taken every time the sound plays.
+     * @param delay          The time in ticks to wait before playing the first sound.
+     * @param period         The time in ticks to wait before playing the sound again.
+     * @param breaker        Checked before every time the sound plays, the loop is cancelled if it returns true.
+     * @return The loop, which can be used to cancel it later.
+     * @throws IllegalStateException If PlayMoreSounds was not enabled yet.
+     */
+    public static @NotNull Loop start(@NotNull PlayableRichSound sound, @Nullable Player player, @NotNull Supplier<Location> sourceLocation,
+                                      long delay, long period, @Nullable BooleanSupplier breaker)
+    {
+        if (!SoundScheduler.isLoaded()) throw new IllegalStateException("PlayMoreSounds is not loaded.");
+
+        Loop loop = new Loop(sound, player, sourceLocation, Math.max(period, 1), breaker);
+
+        if (!sound.isEnabled() || sound.getChildSounds().isEmpty()) {
+            loop.state = Loop.DONE;
+            return loop;
+        }
+
+        if (Bukkit.isPrimaryThread()) {
+            register(loop, delay);
+        } else {
+            SoundQueue.submit(() -> register(loop, delay));
+        }
+
+        return loop;
+    }
+
+    /**
+     * Cancels all loops of a player. This must be called on the main thread.
+     *
+     * @param player The player to cancel the loops.
+     * @return The amount of loops cancelled.
+     */
+    public static int cancel(@NotNull Player player)
+    {
+        ArrayList<Loop> loops = loopsByPlayer.get(player.getUniqueId());
+
+        if (loops == null) return 0;
+
+        int cancelled = 0;
+
+        // Cancelling removes the loop from the list.
+        while (!loops.isEmpty()) if (loops.get(loops.size() - 1).cancel()) ++cancelled;
+
+        return cancelled;
+    }
+
+    /**
+     * @return The amount of loops playing or waiting for their first sound.
+     */
+    public static int getActiveCount()
+    {
+        return active;
+    }
+
+    /**
+     * @param player The player to count the loops.
+     * @return The amount of loops of this player playing or waiting for their first sound.
+     */
+    public static int getActiveCount(@NotNull Player player)
+    {
+        ArrayList<Loop> loops = loopsByPlayer.get(player.getUniqueId());
+
+        return loops == null ? 0 : loops.size();
+    }
+
+    /**
+     * @return The amount of different periods of the active loops.
+     */
+    public static int getBucketCount()
+    {
+        return buckets.size();
+    }
+
+    private static void register(@NotNull Loop loop, long delay)
+    {
+        // Cancelled before being handed over to the main thread.
+        if (loop.state != Loop.NEW) return;
+
+        loop.state = Loop.STARTING;
+        ++active;
+
+        if (loop.owner != null) loopsByPlayer.computeIfAbsent(loop.owner, owner -> new ArrayList<>(2)).add(loop);
+
+        loop.start = SoundScheduler.schedule(loop::first, delay, null);
+    }
+
+    /**
+     * Plays the loops that are due. Called by {@link SoundScheduler} on main thread every tick.
+     *
+     * @param tick The current tick of the scheduler.
+     */
+    static void tick(long tick)
+    {
+        if (buckets.isEmpty()) return;
+
+        Iterator<Bucket> iterator = buckets.values().iterator();
+
+        while (iterator.hasNext()) {
+            Bucket bucket = iterator.next();
+
+            bucket.run(tick);
+
+            if (bucket.size == 0) iterator.remove();
+        }
+    }
+
+    /**
+     * A sound playing in loop on {@link SoundLoops}.
+     */
+    public static final class Loop
+    {
+        private static final byte NEW = 0;
+        private static final byte STARTING = 1;
+        private static final byte ACTIVE = 2;
+        private static final byte DONE = 3;
+        private final @NotNull PlayableRichSound sound;
+        private final @Nullable Player player;
+        private final @Nullable UUID owner;
+        private final @NotNull Supplier<Location> sourceLocation;
+        private final long period;
+        private final @Nullable BooleanSupplier breaker;
+        private byte state = NEW;
+        private long nextTick;
+        private @Nullable SoundScheduler.Handle start;
+
+        private Loop(@NotNull PlayableRichSound sound, @Nullable Player player, @NotNull Supplier<Location> sourceLocation,
+                     long period, @Nullable BooleanSupplier breaker)
+        {
+            this.sound = sound;
+            this.player = player;
+            this.owner = player == null ? null : player.getUniqueId();
+            this.sourceLocation = sourceLocation;
+            this.period = period;
+            this.breaker = breaker;
+        }
+
+        /**
+         * Cancels this loop. This must be called on the main thread.
+         *
+         * @return If the loop was active and was cancelled.
+         */
+        public boolean cancel()
+        {
+            switch (state) {
+                case NEW:
+                    // The loop is still being handed over to the main thread.
+                    state = DONE;
+                    return true;
+                case STARTING:
+                    if (start != null) start.cancel();
+                    // Falls through.
+                case ACTIVE:
+                    finish();
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * @return If this loop is playing or waiting for its first sound.
+         */
+        public boolean isActive()
+        {
+            return state != DONE;
+        }
+
+        /**
+         * @return The time in ticks between the sounds of this loop.
+         */
+        public long getPeriod()
+        {
+            return period;
+        }
+
+        private void first()
+        {
+            if (state != STARTING) return;
+
+            start = null;
+            state = ACTIVE;
+
+            if (!play()) return;
+
+            nextTick = SoundScheduler.getCurrentTick() + period;
+            buckets.computeIfAbsent(period, Bucket::new).add(this);
+        }
+
+        /**
+         * Plays the sound of this loop, unless the loop should stop.
+         *
+         * @return If the loop should keep playing.
+         */
+        private boolean play()
+        {
+            try {
+                if ((player != null && !player.isOnline()) || (breaker != null && breaker.getAsBoolean())) {
+                    finish();
+                    return false;
+                }
+
+                sound.play(player, sourceLocation.get());
+            } catch (Throwable t) {
+                PlayMoreSoundsCore.getErrorHandler().report(t, "Sound Loop Exception:");
+            }
+
+            // The sound might have cancelled this loop.
+            return state == ACTIVE;
+        }
+
+        private void finish()
+        {
+            state = DONE;
+            --active;
+
+            if (owner == null) return;
+
+            ArrayList<Loop> loops = loopsByPlayer.get(owner);
+
+            if (loops != null && loops.remove(this) && loops.isEmpty()) loopsByPlayer.remove(owner);
+        }
+    }
+
+    /**
+     * The loops of a period, in a circular array ordered by the tick they play next. Loops are always added with the
+     * current tick plus the period, so the order is kept by adding to the tail.
+     */
+    private static final class Bucket
+    {
+        private final long period;
+        private @NotNull Loop[] loops = new Loop[8];
+        private int head = 0;
+        private int size = 0;
+
+        private Bucket(long period)
+        {
+            this.period = period;
+        }
+
+        private void add(@NotNull Loop loop)
+        {
+            if (size == loops.length) {
+                Loop[] grown = new Loop[size << 1];
+
+                for (int i = 0; i < size; ++i) grown[i] = loops[(head + i) & (loops.length - 1)];
+
+                loops = grown;
+                head = 0;
+            }
+
+            loops[(head + size++) & (loops.length - 1)] = loop;
+        }
+
+        private @NotNull Loop poll()
+        {
+            Loop loop = loops[head];
+
+            loops[head] = null;
+            head = (head + 1) & (loops.length - 1);
+            --size;
+            return loop;
+        }
+
+        private void run(long tick)
+        {
+            while (size != 0) {
+                Loop loop = loops[head];
+
+                // Cancelled loops are dropped when they get to the head.
+                if (loop.state != Loop.ACTIVE) {
+                    poll();
+                    continue;
+                }
+
+                if (loop.nextTick > tick) return;
+
+                poll();
+
+                if (loop.play()) {
+                    loop.nextTick = tick + period;
+                    add(loop);
+                }
+            }
+        }
+    }
+}
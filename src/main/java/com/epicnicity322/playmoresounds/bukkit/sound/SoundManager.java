@@ -24,24 +24,18 @@ import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
 import com.epicnicity322.playmoresounds.core.sound.SoundOptions;
 import com.epicnicity322.playmoresounds.core.sound.SoundType;
 import com.epicnicity322.playmoresounds.core.util.PMSHelper;
-import org.bukkit.Bukkit;
 import org.bukkit.Location;
 import org.bukkit.NamespacedKey;
 import org.bukkit.entity.Player;
 import org.bukkit.persistence.PersistentDataType;
-import org.bukkit.scheduler.BukkitScheduler;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.UUID;
 
 public final class SoundManager
 {
-    private static final @NotNull BukkitScheduler scheduler = Bukkit.getScheduler();
-    private static final @NotNull HashSet<UUID> disabledSoundsPlayers = new HashSet<>();
     private static NamespacedKey soundState;
 
     private SoundManager()
@@ -52,29 +46,14 @@ public final class SoundManager
      * Enables or Disables sounds of a {@link Player}.
      * <p>
      * Sounds that have the option {@link SoundOptions#ignoresDisabled()} will be played anyway.
-     * If bukkit is running on 1.14+ the sounds will persist a server restart.
+     * The state is saved in {@link SoundPreferences}, so it persists a server restart.
      *
      * @param player The player to toggle the sounds.
      * @param state  The state of sounds: Enabled or Disabled.
-     * @throws IllegalStateException If the server is running on 1.14+ and PlayMoreSounds is disabled.
      */
     public static void toggleSoundsState(@NotNull Player player, boolean state)
     {
-        if (VersionUtils.hasPersistentData()) {
-            if (soundState == null) {
-                if (PlayMoreSounds.getInstance() == null)
-                    throw new IllegalStateException("PlayMoreSounds must be loaded to use this method.");
-
-                soundState = new NamespacedKey(PlayMoreSounds.getInstance(), "sound_state");
-            }
-
-            player.getPersistentDataContainer().set(soundState, PersistentDataType.INTEGER, state ? 1 : 0);
-        } else {
-            if (state)
-                disabledSoundsPlayers.remove(player.getUniqueId());
-            else
-                disabledSoundsPlayers.add(player.getUniqueId());
-        }
+        SoundPreferences.setSoundsEnabled(player, state);
     }
 
     /**
@@ -82,24 +61,67 @@ public final class SoundManager
      *
      * @param player The player to get the state.
      * @return If sounds are enabled or disabled for this player.
-     * @throws IllegalStateException If the server is running on 1.14+ and PlayMoreSounds is disabled.
      */
     public static boolean getSoundsState(@NotNull Player player)
     {
-        if (VersionUtils.hasPersistentData()) {
-            if (soundState == null) {
-                PlayMoreSounds plugin = PlayMoreSounds.getInstance();
+        return getSoundsState(player, SpatialPlayerIndex.getSlot(player));
+    }
+
+    /**
+     * Gets the sounds state of a player using their slot, so their preferences are looked up without a map access.
+     *
+     * @param player The player to get the state.
+     * @param slot   The slot of the player in {@link SpatialPlayerIndex}, or -1 if the player has no slot.
+     * @return If sounds are enabled or disabled for this player.
+     */
+    static boolean getSoundsState(@NotNull Player player, int slot)
+    {
+        return SoundPreferences.isSoundsEnabled(player, slot);
+    }
+
+    /**
+     * Keeps the preferences of a player who just got a slot in memory.
+     *
+     * @param player The player who got the slot.
+     * @param slot   The slot of the player.
+     */
+    static void loadSoundsState(@NotNull Player player, int slot)
+    {
+        SoundPreferences.attach(player, slot);
 
-                if (plugin == null)
-                    throw new IllegalStateException("PlayMoreSounds must be loaded to use this method.");
+        // Sounds states used to be saved on the player's persistent data, moving them to the preferences.
+        if (VersionUtils.hasPersistentData() && !SoundPreferences.hasSoundsState(player)) {
+            Integer state = player.getPersistentDataContainer().get(getSoundStateKey(), PersistentDataType.INTEGER);
 
-                soundState = new NamespacedKey(plugin, "sound_state");
+            if (state != null) {
+                SoundPreferences.setSoundsEnabled(player, state == 1);
+                player.getPersistentDataContainer().remove(getSoundStateKey());
             }
+        }
+    }
 
-            return player.getPersistentDataContainer().getOrDefault(soundState, PersistentDataType.INTEGER, 1) == 1;
-        } else {
-            return !disabledSoundsPlayers.contains(player.getUniqueId());
+    /**
+     * Releases the preferences of a player who is leaving their slot.
+     *
+     * @param slot The slot of the player.
+     */
+    static void unloadSoundsState(int slot)
+    {
+        SoundPreferences.detach(slot);
+    }
+
+    private static @NotNull NamespacedKey getSoundStateKey()
+    {
+        if (soundState == null) {
+            PlayMoreSounds plugin = PlayMoreSounds.getInstance();
+
+            if (plugin == null)
+                throw new IllegalStateException("PlayMoreSounds must be loaded to use this method.");
+
+            soundState = new NamespacedKey(plugin, "sound_state");
         }
+
+        return soundState;
     }
 
     /**
@@ -111,19 +133,14 @@ public final class SoundManager
      * @param player The player to stop the sound.
      * @param sounds The sounds to stop, null if you want to stop all minecraft sounds.
      * @param delay  The delay to wait before stopping the sounds.
-     * @throws IllegalStateException If PlayMoreSounds was not instantiated by bukkit yet.
+     * @throws IllegalStateException If PlayMoreSounds was not enabled yet.
      */
     public static void stopSounds(@NotNull Player player, @Nullable HashSet<String> sounds, long delay)
     {
-        PlayMoreSounds main = PlayMoreSounds.getInstance();
-
-        if (main == null)
-            throw new IllegalStateException("PlayMoreSounds is not loaded.");
-
         if (sounds != null)
             sounds.removeIf(sound -> !PMSHelper.isNamespacedKey(sound));
 
-        scheduler.runTaskLater(main, () -> {
+        SoundScheduler.schedule(() -> {
             if (VersionUtils.hasStopSound())
                 if (sounds == null)
                     for (SoundType toStop : SoundType.getPresentSoundTypes())
@@ -139,7 +156,7 @@ public final class SoundManager
                 for (int i = 0; i < 70; ++i)
                     player.playSound(player.getLocation(), chickenSound, 1.0E-4f, 1.0f);
             }
-        }, delay);
+        }, delay, player);
     }
 
     /**
@@ -162,18 +179,46 @@ public final class SoundManager
         } else if (radius < 0) {
             // Creating new HashSet because Bukkit#getOnlinePlayers is not immutable.
             return new HashSet<>(UniversalVersionMethods.getOnlinePlayers());
-        } else if (radius != 0) {
+        } else {
             HashSet<Player> players = new HashSet<>();
 
-            for (Player player : location.getWorld().getPlayers()) {
-                if (distance(location, player.getLocation()) <= radius) {
-                    players.add(player);
-                }
-            }
+            if (radius != 0) collectInRange(radius, location, players);
 
             return players;
-        } else {
-            return new HashSet<>();
+        }
+    }
+
+    /**
+     * Adds to the collection all players inside a radius range, following the same rules as
+     * {@link #getInRange(double, Location)}. On the main thread players are looked up in {@link SpatialPlayerIndex}, so
+     * only players near the location are checked.
+     *
+     * @param radius   The range of blocks to get the players.
+     * @param location The location to calculate the radius.
+     * @param players  The collection to add the players in range.
+     */
+    static void collectInRange(double radius, @NotNull Location location, @NotNull Collection<? super Player> players)
+    {
+        if (radius < -1) {
+            if (SpatialPlayerIndex.isAvailable())
+                SpatialPlayerIndex.collectInWorld(location.getWorld(), players);
+            else
+                players.addAll(location.getWorld().getPlayers());
+        } else if (radius < 0) {
+            if (SpatialPlayerIndex.isAvailable())
+                SpatialPlayerIndex.collectOnline(players);
+            else
+                players.addAll(UniversalVersionMethods.getOnlinePlayers());
+        } else if (radius != 0) {
+            if (SpatialPlayerIndex.isAvailable()) {
+                SpatialPlayerIndex.collectInRange(location, radius, players);
+            } else {
+                for (Player player : location.getWorld().getPlayers()) {
+                    if (distance(location, player.getLocation()) <= radius) {
+                        players.add(player);
+                    }
+                }
+            }
         }
     }
 
@@ -187,46 +232,4 @@ public final class SoundManager
     {
         return value * value;
     }
-
-    /**
-     * Adds blocks to up, down, right, left, front, back from original sound location based on pitch and yaw.
-     */
-    static @NotNull Location addRelativeLocation(@NotNull Location location, @NotNull Map<SoundOptions.Direction, Double> locationToAdd)
-    {
-        if (!locationToAdd.isEmpty()) {
-            location = location.clone();
-
-            Double leftRight = locationToAdd.get(SoundOptions.Direction.LEFT_RIGHT);
-            Double frontBack = locationToAdd.get(SoundOptions.Direction.FRONT_BACK);
-            Double upDown = locationToAdd.get(SoundOptions.Direction.UP_DOWN);
-            double sin = 0;
-            double cos = 0;
-
-            if (leftRight != null) {
-                double angle = Math.PI * 2 * location.getYaw() / 360;
-                sin = Math.sin(angle);
-                cos = Math.cos(angle);
-
-                location.add(leftRight * cos, 0.0, leftRight * sin);
-            }
-
-            if (frontBack != null) {
-                if (leftRight == null) {
-                    double angle = Math.PI * 2 * location.getYaw() / 360 * -1;
-                    sin = Math.sin(angle);
-                    cos = Math.cos(angle);
-                } else {
-                    sin = sin * -1;
-                    cos = cos * -1;
-                }
-
-                location.add(frontBack * sin, 0.0, frontBack * cos);
-            }
-
-            if (upDown != null)
-                location.add(0.0, upDown, 0.0);
-        }
-
-        return location;
-    }
 }
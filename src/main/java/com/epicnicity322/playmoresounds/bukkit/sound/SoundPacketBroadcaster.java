@@ -0,0 +1,274 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.epicpluginlib.bukkit.reflection.ReflectionUtil;
+import com.epicnicity322.epicpluginlib.core.logger.ConsoleLogger;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Event;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.HandlerList;
+import org.bukkit.event.Listener;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Sends sound packets to many players building each packet only once. Recipients that hear the sound at the same
+ * position share the same packet instance, which is written to their connections without flushing, so the connections
+ * are flushed once per tick instead of once per packet.
+ * <p>
+ * Flushing on tick end requires PaperMC's ServerTickEndEvent, on other servers the connections are flushed once at the
+ * end of each broadcast.
+ */
+final class SoundPacketBroadcaster
+{
+    // Writing to the connections is turned off after this many writes in a row fail.
+    private static final int MAX_WRITE_FAILURES = 3;
+    // Channels that had packets written on this tick and were not flushed yet.
+    private final @NotNull Set<Object> pendingFlush = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final @NotNull Listener tickEndListener = new Listener()
+    {
+    };
+    private boolean channelAccess = NMSSoundAccess.hasChannelAccess();
+    private boolean flushOnTickEnd = false;
+    private int writeFailures = 0;
+
+    SoundPacketBroadcaster()
+    {
+        Class<?> serverTickEndEvent_class = ReflectionUtil.getClass("com.destroystokyo.paper.event.server.ServerTickEndEvent");
+
+        if (channelAccess && serverTickEndEvent_class != null && Event.class.isAssignableFrom(serverTickEndEvent_class)) {
+            PlayMoreSounds.onEnable(() -> {
+                Bukkit.getPluginManager().registerEvent(serverTickEndEvent_class.asSubclass(Event.class), tickEndListener, EventPriority.MONITOR, (listener, event) -> flushPending(), PlayMoreSounds.getInstance());
+                flushOnTickEnd = true;
+            });
+            PlayMoreSounds.onDisable(() -> {
+                flushOnTickEnd = false;
+                HandlerList.unregisterAll(tickEndListener);
+                flushPending();
+            });
+        }
+    }
+
+    /**
+     * Starts broadcasting a sound. The returned broadcast must be ended with {@link Broadcast#end()} after all
+     * recipients received the sound.
+     *
+     * @param sound The sound to broadcast.
+     * @param plan  The plan of the sound, with the NMS key and category to play.
+     * @return A broadcast to send the sound to the recipients.
+     */
+    @NotNull Broadcast begin(@NotNull PlayableSound sound, @NotNull SoundPlan plan)
+    {
+        // Tick end events are called on main thread, sounds played by other threads flush on their own.
+        return new Broadcast(sound, plan, flushOnTickEnd && Bukkit.isPrimaryThread());
+    }
+
+    private void flushPending()
+    {
+        if (pendingFlush.isEmpty()) return;
+
+        for (Object channel : pendingFlush) flush(channel);
+
+        pendingFlush.clear();
+    }
+
+    private void flush(@NotNull Object channel)
+    {
+        try {
+            NMSSoundAccess.flush(channel);
+        } catch (Throwable e) {
+            PlayMoreSoundsCore.getErrorHandler().report(e, "Flush Sound Packets Exception:");
+        }
+    }
+
+    private @Nullable Object getChannel(@NotNull Player player)
+    {
+        try {
+            return NMSSoundAccess.getChannel(player);
+        } catch (Throwable e) {
+            channelAccess = false;
+            PlayMoreSounds.getConsoleLogger().log("Could not access player connections, sound packets will be flushed individually.", ConsoleLogger.Level.WARN);
+            PlayMoreSoundsCore.getErrorHandler().report(e, "Player Connection Access Exception:");
+            return null;
+        }
+    }
+
+    /**
+     * The packets of a sound being sent to its recipients, grouped by position.
+     */
+    final class Broadcast
+    {
+        private final @NotNull PlayableSound sound;
+        private final @NotNull SoundPlan plan;
+        private final boolean flushOnTickEnd;
+        private @Nullable ArrayList<Object> written;
+        private @Nullable HashMap<PacketPosition, Object> packets;
+        private @Nullable Object lastPacket;
+        private int lastX;
+        private int lastY;
+        private int lastZ;
+        private float lastVolume;
+
+        private Broadcast(@NotNull PlayableSound sound, @NotNull SoundPlan plan, boolean flushOnTickEnd)
+        {
+            this.sound = sound;
+            this.plan = plan;
+            this.flushOnTickEnd = flushOnTickEnd;
+        }
+
+        /**
+         * Writes the packet of the sound at this location to the player, building it only if no other recipient of
+         * this broadcast heard the sound at the same position.
+         *
+         * @param player   The player to send the packet.
+         * @param location The location the sound should be played at.
+         * @param volume   The volume the sound should be played with.
+         */
+        void send(@NotNull Player player, @NotNull Location location, float volume)
+        {
+            Object packet;
+
+            try {
+                packet = getPacket(location, volume);
+            } catch (Throwable e) {
+                PlayMoreSounds.getConsoleLogger().log("Could not play '" + sound.getSound() + "' using reflection. Please disable 'Send Packets Directly' in config.", ConsoleLogger.Level.WARN);
+                PlayMoreSoundsCore.getErrorHandler().report(e, "Send Sound Packet Exception:");
+                return;
+            }
+
+            Object channel = channelAccess ? getChannel(player) : null;
+
+            if (channel == null) {
+                ReflectionUtil.sendPacket(player, packet);
+                return;
+            }
+
+            try {
+                NMSSoundAccess.write(channel, packet);
+                writeFailures = 0;
+            } catch (Throwable e) {
+                PlayMoreSoundsCore.getErrorHandler().report(e, "Write Sound Packet Exception:");
+
+                if (++writeFailures >= MAX_WRITE_FAILURES) {
+                    channelAccess = false;
+                    PlayMoreSounds.getConsoleLogger().log("Could not write to player connections, sound packets will be flushed individually.", ConsoleLogger.Level.WARN);
+                }
+
+                // The player still hears the sound, sent the way bukkit sends packets.
+                ReflectionUtil.sendPacket(player, packet);
+                return;
+            }
+
+            if (flushOnTickEnd) {
+                pendingFlush.add(channel);
+            } else {
+                if (written == null) written = new ArrayList<>();
+
+                written.add(channel);
+            }
+        }
+
+        /**
+         * Flushes the connections written by this broadcast, unless they are flushed on tick end.
+         */
+        void end()
+        {
+            if (written == null) return;
+
+            // A player might have heard the sound at more than one position, flushing their connection only once.
+            Set<Object> flushed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+            for (Object channel : written) if (flushed.add(channel)) flush(channel);
+
+            written = null;
+        }
+
+        private @NotNull Object getPacket(@NotNull Location location, float volume) throws Throwable
+        {
+            // Positions are sent to the client as eighths of a block.
+            int x = (int) (location.getX() * 8.0);
+            int y = (int) (location.getY() * 8.0);
+            int z = (int) (location.getZ() * 8.0);
+
+            // Players on worlds with a volume multiplier hear the sound with a different volume at the same position.
+            if (lastPacket != null && x == lastX && y == lastY && z == lastZ && volume == lastVolume) return lastPacket;
+
+            PacketPosition position = new PacketPosition(x, y, z, volume);
+            Object packet = null;
+
+            if (packets == null) {
+                packets = new HashMap<>(4);
+            } else {
+                packet = packets.get(position);
+            }
+
+            if (packet == null) {
+                packet = NMSSoundAccess.newPacket(plan.minecraftKey, plan.nmsCategory, location.getX(), location.getY(), location.getZ(), volume, sound.getPitch());
+                packets.put(position, packet);
+            }
+
+            lastPacket = packet;
+            lastX = x;
+            lastY = y;
+            lastZ = z;
+            lastVolume = volume;
+            return packet;
+        }
+    }
+
+    private static final class PacketPosition
+    {
+        private final int x;
+        private final int y;
+        private final int z;
+        private final float volume;
+
+        private PacketPosition(int x, int y, int z, float volume)
+        {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.volume = volume;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof PacketPosition)) return false;
+
+            PacketPosition that = (PacketPosition) o;
+
+            return x == that.x && y == that.y && z == that.z && volume == that.volume;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return ((x * 31 + y) * 31 + z) * 31 + Float.floatToIntBits(volume);
+        }
+    }
+}
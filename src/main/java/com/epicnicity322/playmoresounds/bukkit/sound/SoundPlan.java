@@ -0,0 +1,180 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.core.sound.SoundOptions;
+import org.bukkit.Location;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+
+/**
+ * Everything {@link PlayableSound} needs to play, derived once from its options and properties. This way playing a
+ * sound does not need to look up maps, check the radius sign or resolve NMS objects every time.
+ * <p>
+ * Plans are immutable, {@link PlayableSound} compiles a new one when the sound, its volume or its {@link SoundOptions}
+ * change.
+ */
+final class SoundPlan
+{
+    final @NotNull SoundOptions options;
+    final int optionsModifications;
+    final @NotNull RadiusMode radiusMode;
+    final double radiusSquared;
+    final boolean ignoresDisabled;
+    final @Nullable PermissionCache.Node permissionToListen;
+    final @Nullable PermissionCache.Node permissionRequired;
+    final boolean hasRelativeLocation;
+    final boolean hasRotatedOffset;
+    final double leftRight;
+    final double frontBack;
+    final double upDown;
+    final double relativeDistanceSquared;
+    final double audibleDistanceSquared;
+    final @Nullable Object minecraftKey;
+    final @Nullable Object nmsCategory;
+    // Front and back offset on Z axis is inverted when there is a left and right offset.
+    private final double frontBackZ;
+    private final float volume;
+
+    SoundPlan(@NotNull SoundOptions options, float volume, @Nullable Object minecraftKey, @Nullable Object nmsCategory)
+    {
+        this.options = options;
+        this.minecraftKey = minecraftKey;
+        this.nmsCategory = nmsCategory;
+        this.volume = volume;
+        optionsModifications = options.getModifications();
+        radiusSquared = options.getRadiusSquared();
+        ignoresDisabled = options.ignoresDisabled();
+        permissionToListen = options.getPermissionToListen() == null ? null : PermissionCache.register(options.getPermissionToListen());
+        permissionRequired = options.getPermissionRequired() == null ? null : PermissionCache.register(options.getPermissionRequired());
+
+        if (radiusSquared < -1) {
+            radiusMode = RadiusMode.WORLD;
+        } else if (radiusSquared < 0) {
+            radiusMode = RadiusMode.SERVER;
+        } else if (radiusSquared == 0) {
+            radiusMode = RadiusMode.SOURCE;
+        } else {
+            radiusMode = RadiusMode.RANGE;
+        }
+
+        Map<SoundOptions.Direction, Double> relativeLocation = options.getRelativeLocation();
+        Double leftRight = relativeLocation.get(SoundOptions.Direction.LEFT_RIGHT);
+        Double frontBack = relativeLocation.get(SoundOptions.Direction.FRONT_BACK);
+        Double upDown = relativeLocation.get(SoundOptions.Direction.UP_DOWN);
+
+        this.leftRight = leftRight == null ? 0 : leftRight;
+        this.frontBack = frontBack == null ? 0 : frontBack;
+        this.upDown = upDown == null ? 0 : upDown;
+        frontBackZ = leftRight == null ? this.frontBack : -this.frontBack;
+        hasRotatedOffset = leftRight != null || frontBack != null;
+        hasRelativeLocation = hasRotatedOffset || upDown != null;
+        relativeDistanceSquared = this.leftRight * this.leftRight + this.frontBack * this.frontBack + this.upDown * this.upDown;
+
+        audibleDistanceSquared = audibleDistanceSquared(volume);
+    }
+
+    private static double audibleDistanceSquared(float volume)
+    {
+        // Minecraft clients attenuate sounds linearly until 16 blocks, louder sounds are heard 16 blocks per volume.
+        double audibleDistance = 16.0 * Math.max(volume, 1.0f);
+
+        return audibleDistance * audibleDistance;
+    }
+
+    /**
+     * Gets how far the sound can be heard on a world that multiplies the volume of sounds.
+     *
+     * @param volumeMultiplier The {@link WorldPolicy#getVolumeMultiplier()} of the world of the listener.
+     * @return The distance squared the sound is still audible from.
+     */
+    double getAudibleDistanceSquared(float volumeMultiplier)
+    {
+        return volumeMultiplier == 1.0f ? audibleDistanceSquared : audibleDistanceSquared(volume * volumeMultiplier);
+    }
+
+    /**
+     * Whether this plan was compiled from these options and the options were not changed since.
+     *
+     * @param options The current options of the sound.
+     * @return If this plan is still valid for the options.
+     */
+    boolean isUpToDate(@NotNull SoundOptions options)
+    {
+        return this.options == options && optionsModifications == options.getModifications();
+    }
+
+    /**
+     * Adds blocks to up, down, right, left, front, back from original sound location based on the yaw of the location.
+     *
+     * @param location The location to add the offsets.
+     * @return A new location with the offsets added, or the same location if there are no offsets.
+     */
+    @NotNull Location addRelativeLocation(@NotNull Location location)
+    {
+        if (!hasRelativeLocation) return location;
+
+        location = location.clone();
+
+        if (hasRotatedOffset) {
+            double angle = Math.PI * 2 * location.getYaw() / 360;
+            double sin = Math.sin(angle);
+            double cos = Math.cos(angle);
+
+            location.add(leftRight * cos - frontBack * sin, upDown, leftRight * sin + frontBackZ * cos);
+        } else {
+            location.add(0.0, upDown, 0.0);
+        }
+
+        return location;
+    }
+
+    /**
+     * Who hears a sound, based on {@link SoundOptions#getRadius()}.
+     */
+    enum RadiusMode
+    {
+        /**
+         * Radius = 0: only the player who played the sound.
+         */
+        SOURCE,
+        /**
+         * Radius > 0: the players in range of the sound location.
+         */
+        RANGE,
+        /**
+         * Radius = -1: all players in the server, the sound plays relative to each one of them.
+         */
+        SERVER,
+        /**
+         * Radius < -1: all players in the world, the sound plays relative to each one of them.
+         */
+        WORLD;
+
+        /**
+         * @return If the sound plays at the location of each player that hears it.
+         */
+        boolean isRelativeToListener()
+        {
+            return this == SERVER || this == WORLD;
+        }
+    }
+}
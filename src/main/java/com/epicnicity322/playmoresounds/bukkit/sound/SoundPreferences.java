@@ -0,0 +1,590 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.epicpluginlib.core.logger.ConsoleLogger;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.bukkit.util.UniversalVersionMethods;
+import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
+import com.epicnicity322.playmoresounds.core.sound.SoundCategory;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Stores what sounds each player wants to hear: all sounds, sounds of a category or sounds of a trigger, like
+ * "Player Join" of sounds.yml.
+ * <p>
+ * Preferences are saved on append only files on "Data/Preferences", with players spread in 256 files by their UUID.
+ * The preferences of a player are loaded asynchronously when they are logging in and kept in memory while they are
+ * online. Players who were already online when PlayMoreSounds was enabled have their preferences loaded asynchronously
+ * too, and have the default preferences until then. Changes are written in batches every few seconds, and the files are
+ * compacted when they are loaded with too many old changes.
+ */
+public final class SoundPreferences
+{
+    private static final int MAGIC = 0x504D5350;
+    private static final byte VERSION = 1;
+    private static final byte KIND_SOUNDS = 0;
+    private static final byte KIND_CATEGORY = 1;
+    private static final byte KIND_TRIGGER = 2;
+    private static final int BUCKETS = 256;
+    private static final long FLUSH_PERIOD = 100;
+    // Preferences loaded on login are forgotten if the player does not join after this time.
+    private static final long UNCLAIMED_EXPIRY = 60000;
+    private static final @NotNull Path preferencesFolder = PlayMoreSoundsCore.getFolder().resolve("Data").resolve("Preferences");
+    private static final @NotNull Object[] bucketLocks = new Object[BUCKETS];
+    private static final @NotNull ConcurrentHashMap<UUID, Preferences> preferences = new ConcurrentHashMap<>();
+    private static final @NotNull ConcurrentLinkedQueue<Change> pendingChanges = new ConcurrentLinkedQueue<>();
+    private static final @NotNull HashMap<String, Integer> triggerIds = new HashMap<>();
+    private static @NotNull Preferences[] slotPreferences = new Preferences[16];
+    private static boolean loaded = false;
+
+    static {
+        for (int i = 0; i < BUCKETS; ++i) bucketLocks[i] = new Object();
+    }
+
+    private SoundPreferences()
+    {
+    }
+
+    /**
+     * Registers the listener that loads the preferences of players logging in, and the task that saves changes. The
+     * preferences of players already online start loading asynchronously.
+     *
+     * @param plugin The plugin to register the listener and task.
+     */
+    public static void load(@NotNull PlayMoreSounds plugin)
+    {
+        if (loaded) return;
+
+        Bukkit.getPluginManager().registerEvents(new PreLoginListener(), plugin);
+        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, SoundPreferences::flush, FLUSH_PERIOD, FLUSH_PERIOD);
+
+        for (Player player : UniversalVersionMethods.getOnlinePlayers()) readLater(player.getUniqueId());
+
+        PlayMoreSounds.onDisable(() -> {
+            loaded = false;
+            flush();
+            preferences.clear();
+            Arrays.fill(slotPreferences, null);
+        });
+
+        loaded = true;
+    }
+
+    /**
+     * Checks if the player wants to hear sounds of a category.
+     *
+     * @param player   The player to check.
+     * @param category The category of the sounds.
+     * @return If sounds of this category are enabled for this player.
+     */
+    public static boolean isCategoryEnabled(@NotNull Player player, @NotNull SoundCategory category)
+    {
+        return !get(player, SpatialPlayerIndex.getSlot(player)).state.disabledCategories[category.ordinal()];
+    }
+
+    /**
+     * Enables or disables sounds of a category for a player. The preference persists server restarts.
+     *
+     * @param player   The player to set the preference.
+     * @param category The category of the sounds.
+     * @param enabled  If sounds of this category should play to the player.
+     */
+    public static void setCategoryEnabled(@NotNull Player player, @NotNull SoundCategory category, boolean enabled)
+    {
+        Preferences playerPreferences = get(player, SpatialPlayerIndex.getSlot(player));
+
+        playerPreferences.change(new Change(playerPreferences.uuid, KIND_CATEGORY, category.name(), enabled));
+    }
+
+    /**
+     * Checks if the player wants to hear the sounds of a trigger.
+     *
+     * @param player  The player to check.
+     * @param trigger The name of the trigger, the same as its rich sound's name.
+     * @return If sounds of this trigger are enabled for this player.
+     */
+    public static boolean isTriggerEnabled(@NotNull Player player, @NotNull String trigger)
+    {
+        return !get(player, SpatialPlayerIndex.getSlot(player)).state.disabledTriggers.get(getTriggerId(trigger));
+    }
+
+    /**
+     * Enables or disables the sounds of a trigger for a player. The preference persists server restarts.
+     *
+     * @param player  The player to set the preference.
+     * @param trigger The name of the trigger, the same as its rich sound's name.
+     * @param enabled If sounds of this trigger should play to the player.
+     */
+    public static void setTriggerEnabled(@NotNull Player player, @NotNull String trigger, boolean enabled)
+    {
+        Preferences playerPreferences = get(player, SpatialPlayerIndex.getSlot(player));
+
+        playerPreferences.change(new Change(playerPreferences.uuid, KIND_TRIGGER, trigger, enabled));
+    }
+
+    /**
+     * Gets the id of a trigger, registering it if this is the first time it's used. Ids are used to look up trigger
+     * preferences on bit sets instead of by name.
+     *
+     * @param trigger The name of the trigger.
+     * @return The id of the trigger.
+     */
+    static synchronized int getTriggerId(@NotNull String trigger)
+    {
+        Integer id = triggerIds.get(trigger);
+
+        if (id == null) {
+            id = triggerIds.size();
+            triggerIds.put(trigger, id);
+        }
+
+        return id;
+    }
+
+    static boolean isSoundsEnabled(@NotNull Player player, int slot)
+    {
+        return get(player, slot).state.soundsEnabled;
+    }
+
+    static void setSoundsEnabled(@NotNull Player player, boolean enabled)
+    {
+        Preferences playerPreferences = get(player, SpatialPlayerIndex.getSlot(player));
+
+        playerPreferences.change(new Change(playerPreferences.uuid, KIND_SOUNDS, "", enabled));
+    }
+
+    static boolean hasSoundsState(@NotNull Player player)
+    {
+        return get(player, SpatialPlayerIndex.getSlot(player)).state.hasSoundsState;
+    }
+
+    /**
+     * Checks if the player wants to hear a sound, by all their preferences.
+     *
+     * @param player   The player to check.
+     * @param slot     The slot of the player in {@link SpatialPlayerIndex}, or -1 if the player has no slot.
+     * @param category The category of the sound.
+     * @param trigger  The id of the trigger playing the sound, or -1 if it was not played by a trigger.
+     * @return If the sound should play to the player.
+     */
+    static boolean allows(@NotNull Player player, int slot, @NotNull SoundCategory category, int trigger)
+    {
+        State state = get(player, slot).state;
+
+        return state.soundsEnabled && !state.disabledCategories[category.ordinal()]
+                && (trigger == -1 || !state.disabledTriggers.get(trigger));
+    }
+
+    /**
+     * Keeps the preferences of a player who just got a slot, so they can be looked up by the slot while the player is
+     * online.
+     *
+     * @param player The player who got the slot.
+     * @param slot   The slot of the player.
+     */
+    static void attach(@NotNull Player player, int slot)
+    {
+        Preferences playerPreferences = get(player, -1);
+
+        playerPreferences.expiresAt = Long.MAX_VALUE;
+
+        if (slot >= slotPreferences.length)
+            slotPreferences = Arrays.copyOf(slotPreferences, Math.max(slotPreferences.length << 1, slot + 1));
+
+        slotPreferences[slot] = playerPreferences;
+    }
+
+    /**
+     * Clears the slot of a player who is leaving it. Their preferences are forgotten once their changes are saved.
+     *
+     * @param slot The slot of the player.
+     */
+    static void detach(int slot)
+    {
+        if (slot >= slotPreferences.length) return;
+
+        Preferences playerPreferences = slotPreferences[slot];
+
+        if (playerPreferences == null) return;
+
+        playerPreferences.expiresAt = System.currentTimeMillis();
+        slotPreferences[slot] = null;
+    }
+
+    private static @NotNull Preferences get(@NotNull Player player, int slot)
+    {
+        UUID uuid = player.getUniqueId();
+
+        if (slot >= 0 && slot < slotPreferences.length) {
+            Preferences playerPreferences = slotPreferences[slot];
+
+            // Slots are reused, the player might have quit after the slot was collected.
+            if (playerPreferences != null && playerPreferences.uuid.equals(uuid)) return playerPreferences;
+        }
+
+        Preferences playerPreferences = preferences.get(uuid);
+
+        // Players online before PlayMoreSounds was enabled did not log in, the main thread does not wait for their file.
+        if (playerPreferences == null) playerPreferences = Bukkit.isPrimaryThread() ? readLater(uuid) : read(uuid);
+
+        return playerPreferences;
+    }
+
+    private static @NotNull Preferences read(@NotNull UUID uuid)
+    {
+        Preferences playerPreferences = new Preferences(uuid);
+
+        playerPreferences.state = readFile(uuid);
+
+        Preferences previous = preferences.putIfAbsent(uuid, playerPreferences);
+
+        return previous == null ? playerPreferences : previous;
+    }
+
+    /**
+     * Keeps the default preferences for the player while their file is read asynchronously. Changes made before the
+     * file is read are applied over the saved preferences.
+     *
+     * @param uuid The UUID of the player.
+     * @return The preferences of the player.
+     */
+    private static @NotNull Preferences readLater(@NotNull UUID uuid)
+    {
+        Preferences playerPreferences = new Preferences(uuid);
+
+        playerPreferences.changesWhileLoading = new ArrayList<>();
+
+        Preferences previous = preferences.putIfAbsent(uuid, playerPreferences);
+
+        if (previous != null) return previous;
+
+        PlayMoreSounds plugin = PlayMoreSounds.getInstance();
+        Runnable loader = () -> playerPreferences.loaded(readFile(uuid));
+
+        if (plugin == null || !plugin.isEnabled())
+            loader.run();
+        else
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, loader);
+
+        return playerPreferences;
+    }
+
+    private static @NotNull State readFile(@NotNull UUID uuid)
+    {
+        int bucket = bucket(uuid);
+
+        synchronized (bucketLocks[bucket]) {
+            Path file = preferencesFolder.resolve(String.format("%02x.dat", bucket));
+
+            if (Files.exists(file)) {
+                try {
+                    return readBucket(file, uuid);
+                } catch (IOException e) {
+                    PlayMoreSounds.getConsoleLogger().log("Could not load sound preferences of " + uuid + ".", ConsoleLogger.Level.WARN);
+                    PlayMoreSoundsCore.getErrorHandler().report(e, "Load Sound Preferences Exception:");
+                }
+            }
+        }
+
+        return State.DEFAULT;
+    }
+
+    private static @NotNull State readBucket(@NotNull Path file, @NotNull UUID uuid) throws IOException
+    {
+        byte[] bytes = Files.readAllBytes(file);
+
+        if (bytes.length == 0) return State.DEFAULT;
+
+        // The latest change of every preference in the file, to know if the file is worth compacting.
+        LinkedHashMap<ChangeKey, Change> latest = new LinkedHashMap<>();
+        State state = State.DEFAULT;
+        int changes = 0;
+        boolean truncated = false;
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes));
+
+        if (bytes.length < 5 || input.readInt() != MAGIC || input.readByte() != VERSION) {
+            PlayMoreSounds.getConsoleLogger().log("The sound preferences file '" + file.getFileName() + "' is not valid and was ignored.", ConsoleLogger.Level.WARN);
+            return State.DEFAULT;
+        }
+
+        while (input.available() > 0) {
+            Change change;
+
+            try {
+                change = Change.read(input);
+            } catch (EOFException e) {
+                // A partial change is left when the server stops while writing, it is discarded by compacting.
+                truncated = true;
+                break;
+            }
+
+            ++changes;
+            latest.put(new ChangeKey(change), change);
+
+            if (change.uuid.equals(uuid)) state = state.with(change);
+        }
+
+        if (truncated || (changes > 32 && changes > latest.size() * 2)) compact(file, latest.values());
+
+        return state;
+    }
+
+    private static void compact(@NotNull Path file, @NotNull Collection<Change> latest) throws IOException
+    {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+
+            // Enabled is the default for every preference, so only disabled ones need to be kept.
+            for (Change change : latest) if (!change.enabled) change.write(output);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Appends the pending changes to the preference files, then forgets the preferences of players who are no longer
+     * online.
+     */
+    private static synchronized void flush()
+    {
+        if (!pendingChanges.isEmpty()) {
+            HashMap<Integer, ArrayList<Change>> changesByBucket = new HashMap<>();
+            Change change;
+
+            while ((change = pendingChanges.poll()) != null)
+                changesByBucket.computeIfAbsent(bucket(change.uuid), k -> new ArrayList<>()).add(change);
+
+            for (Map.Entry<Integer, ArrayList<Change>> bucketChanges : changesByBucket.entrySet()) {
+                int bucket = bucketChanges.getKey();
+
+                synchronized (bucketLocks[bucket]) {
+                    try {
+                        append(preferencesFolder.resolve(String.format("%02x.dat", bucket)), bucketChanges.getValue());
+                    } catch (IOException e) {
+                        PlayMoreSounds.getConsoleLogger().log("Could not save sound preferences.", ConsoleLogger.Level.WARN);
+                        PlayMoreSoundsCore.getErrorHandler().report(e, "Save Sound Preferences Exception:");
+                    }
+                }
+            }
+        }
+
+        long now = System.currentTimeMillis();
+
+        preferences.values().removeIf(playerPreferences -> playerPreferences.expiresAt <= now);
+    }
+
+    private static void append(@NotNull Path file, @NotNull ArrayList<Change> changes) throws IOException
+    {
+        Files.createDirectories(preferencesFolder);
+
+        boolean newFile = Files.notExists(file) || Files.size(file) == 0;
+
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+            if (newFile) {
+                output.writeInt(MAGIC);
+                output.writeByte(VERSION);
+            }
+
+            for (Change change : changes) change.write(output);
+        }
+    }
+
+    private static int bucket(@NotNull UUID uuid)
+    {
+        return (int) (uuid.getLeastSignificantBits() & (BUCKETS - 1));
+    }
+
+    private static final class PreLoginListener implements Listener
+    {
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event)
+        {
+            if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+
+            Preferences playerPreferences = preferences.get(event.getUniqueId());
+
+            // The player might be rejoining before their preferences were forgotten.
+            if (playerPreferences == null) playerPreferences = read(event.getUniqueId());
+            if (playerPreferences.expiresAt != Long.MAX_VALUE)
+                playerPreferences.expiresAt = System.currentTimeMillis() + UNCLAIMED_EXPIRY;
+        }
+    }
+
+    private static final class Preferences
+    {
+        private final @NotNull UUID uuid;
+        // Replaced as a whole on every change, so the main thread never sees a state being loaded or changed.
+        private volatile @NotNull State state = State.DEFAULT;
+        private volatile long expiresAt = System.currentTimeMillis() + UNCLAIMED_EXPIRY;
+        // The changes made while the file of the player is being read, null once it was read.
+        private @Nullable ArrayList<Change> changesWhileLoading;
+
+        private Preferences(@NotNull UUID uuid)
+        {
+            this.uuid = uuid;
+        }
+
+        private void change(@NotNull Change change)
+        {
+            synchronized (this) {
+                state = state.with(change);
+
+                if (changesWhileLoading != null) changesWhileLoading.add(change);
+            }
+
+            pendingChanges.add(change);
+        }
+
+        private synchronized void loaded(@NotNull State saved)
+        {
+            // Changes made while loading are newer than the saved ones.
+            if (changesWhileLoading != null) for (Change change : changesWhileLoading) saved = saved.with(change);
+
+            state = saved;
+            changesWhileLoading = null;
+        }
+    }
+
+    /**
+     * The preferences of a player at some point. States are never modified, a change creates a new state.
+     */
+    private static final class State
+    {
+        private static final @NotNull State DEFAULT = new State(true, false, new boolean[SoundCategory.values().length], new BitSet());
+        private final boolean soundsEnabled;
+        private final boolean hasSoundsState;
+        private final @NotNull boolean[] disabledCategories;
+        private final @NotNull BitSet disabledTriggers;
+
+        private State(boolean soundsEnabled, boolean hasSoundsState, @NotNull boolean[] disabledCategories, @NotNull BitSet disabledTriggers)
+        {
+            this.soundsEnabled = soundsEnabled;
+            this.hasSoundsState = hasSoundsState;
+            this.disabledCategories = disabledCategories;
+            this.disabledTriggers = disabledTriggers;
+        }
+
+        private @NotNull State with(@NotNull Change change)
+        {
+            switch (change.kind) {
+                case KIND_SOUNDS:
+                    return new State(change.enabled, true, disabledCategories, disabledTriggers);
+                case KIND_CATEGORY:
+                    boolean[] categories = disabledCategories.clone();
+
+                    try {
+                        categories[SoundCategory.valueOf(change.key).ordinal()] = !change.enabled;
+                    } catch (IllegalArgumentException ignored) {
+                        // Category removed on an update.
+                        return this;
+                    }
+
+                    return new State(soundsEnabled, hasSoundsState, categories, disabledTriggers);
+                case KIND_TRIGGER:
+                    BitSet triggers = (BitSet) disabledTriggers.clone();
+
+                    triggers.set(getTriggerId(change.key), !change.enabled);
+                    return new State(soundsEnabled, hasSoundsState, disabledCategories, triggers);
+                default:
+                    return this;
+            }
+        }
+    }
+
+    private static final class Change
+    {
+        private final @NotNull UUID uuid;
+        private final byte kind;
+        private final @NotNull String key;
+        private final boolean enabled;
+
+        private Change(@NotNull UUID uuid, byte kind, @NotNull String key, boolean enabled)
+        {
+            this.uuid = uuid;
+            this.kind = kind;
+            this.key = key;
+            this.enabled = enabled;
+        }
+
+        private static @NotNull Change read(@NotNull DataInputStream input) throws IOException
+        {
+            return new Change(new UUID(input.readLong(), input.readLong()), input.readByte(), input.readUTF(), input.readBoolean());
+        }
+
+        private void write(@NotNull DataOutputStream output) throws IOException
+        {
+            output.writeLong(uuid.getMostSignificantBits());
+            output.writeLong(uuid.getLeastSignificantBits());
+            output.writeByte(kind);
+            output.writeUTF(key);
+            output.writeBoolean(enabled);
+        }
+    }
+
+    private static final class ChangeKey
+    {
+        private final @NotNull UUID uuid;
+        private final byte kind;
+        private final @NotNull String key;
+
+        private ChangeKey(@NotNull Change change)
+        {
+            this.uuid = change.uuid;
+            this.kind = change.kind;
+            this.key = change.key;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (!(o instanceof ChangeKey)) return false;
+
+            ChangeKey that = (ChangeKey) o;
+
+            return kind == that.kind && uuid.equals(that.uuid) && key.equals(that.key);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (uuid.hashCode() * 31 + kind) * 31 + key.hashCode();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
+import com.epicnicity322.playmoresounds.core.config.Configurations;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A queue of sounds to play on the main thread, which can be submitted from any thread. Async listeners, packet
+ * listeners and addons can use this to play sounds without a scheduler task for each sound.
+ * <p>
+ * The queue is lock-free and is drained by {@link SoundScheduler} on the start of every tick. The max amount of sounds
+ * played per tick is set on config as "Performance.Submitted Sounds Per Tick", the sounds over this limit wait for
+ * the next ticks.
+ */
+public final class SoundQueue
+{
+    private static final @NotNull ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue#size is not constant time.
+    private static final @NotNull AtomicInteger queued = new AtomicInteger();
+    private static volatile int budget = 0;
+    private static int drainedLastTick = 0;
+
+    static {
+        Runnable budgetUpdater = () -> budget = Math.max(Configurations.CONFIG.getConfigurationHolder().getConfiguration().getNumber("Performance.Submitted Sounds Per Tick").orElse(0).intValue(), 0);
+
+        budgetUpdater.run();
+        PlayMoreSounds.onReload(budgetUpdater);
+        PlayMoreSounds.onDisable(() -> {
+            queue.clear();
+            queued.set(0);
+            drainedLastTick = 0;
+        });
+    }
+
+    private SoundQueue()
+    {
+    }
+
+    /**
+     * Submits a task to run on the main thread. If this is called on the main thread, the task runs right away.
+     *
+     * @param task The task to run.
+     */
+    public static void submit(@NotNull Runnable task)
+    {
+        if (Bukkit.isPrimaryThread()) {
+            task.run();
+        } else {
+            queue.offer(task);
+            queued.incrementAndGet();
+        }
+    }
+
+    /**
+     * Submits a sound to play to a player on the main thread. The location of the player is taken when the sound plays.
+     *
+     * @param sound  The sound to play.
+     * @param player The player to play the sound.
+     * @see Playable#play(Player)
+     */
+    public static void submit(@NotNull Playable sound, @NotNull Player player)
+    {
+        submit(() -> sound.play(player));
+    }
+
+    /**
+     * Submits a sound to play on the main thread.
+     *
+     * @param sound          The sound to play.
+     * @param player         The player to play the sound, null if the sound has no source player.
+     * @param sourceLocation The location where the sound will play.
+     * @see Playable#play(Player, Location)
+     */
+    public static void submit(@NotNull Playable sound, @Nullable Player player, @NotNull Location sourceLocation)
+    {
+        submit(() -> sound.play(player, sourceLocation));
+    }
+
+    /**
+     * @return The amount of submitted tasks waiting to run.
+     */
+    public static int getQueuedCount()
+    {
+        return queued.get();
+    }
+
+    /**
+     * @return The amount of submitted tasks that ran on the last tick.
+     */
+    public static int getDrainedLastTick()
+    {
+        return drainedLastTick;
+    }
+
+    /**
+     * @return The max amount of submitted tasks that run per tick, 0 if unlimited.
+     */
+    public static int getBudget()
+    {
+        return budget;
+    }
+
+    /**
+     * Runs the submitted tasks, up to the budget. Called by {@link SoundScheduler} on main thread every tick.
+     */
+    static void drain()
+    {
+        int budget = SoundQueue.budget;
+        int drained = 0;
+        Runnable task;
+
+        while ((budget == 0 || drained < budget) && (task = queue.poll()) != null) {
+            queued.decrementAndGet();
+            ++drained;
+
+            try {
+                task.run();
+            } catch (Throwable t) {
+                PlayMoreSoundsCore.getErrorHandler().report(t, "Submitted Sound Exception:");
+            }
+        }
+
+        drainedLastTick = drained;
+    }
+}
@@ -0,0 +1,424 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.PlayMoreSoundsCore;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.HashMap;
+import java.util.UUID;
+
+/**
+ * Runs delayed sounds of PlayMoreSounds, the sounds submitted to {@link SoundQueue} and the loops of
+ * {@link SoundLoops}. Instead of a bukkit task for every delayed sound, tasks are kept in a hierarchical timing wheel
+ * driven by a single repeating task, which runs all tasks due in the current tick at once.
+ * <p>
+ * The first wheel has a slot for each of the next 256 ticks, farther tasks are kept in coarser wheels and moved to the
+ * finer ones as their time approaches. Scheduling and cancelling tasks take constant time.
+ */
+public final class SoundScheduler
+{
+    private static final int FIRST_WHEEL_BITS = 8;
+    private static final int WHEEL_BITS = 6;
+    private static final int WHEEL_MASK = (1 << WHEEL_BITS) - 1;
+    private static final int FIRST_WHEEL_MASK = (1 << FIRST_WHEEL_BITS) - 1;
+    private static final int[] shifts = {0, FIRST_WHEEL_BITS, FIRST_WHEEL_BITS + WHEEL_BITS, FIRST_WHEEL_BITS + WHEEL_BITS * 2};
+    private static final @NotNull Handle[][] wheels = new Handle[shifts.length][];
+    private static final @NotNull HashMap<UUID, Handle> handlesByOwner = new HashMap<>();
+    // Tasks too far in the future for the last wheel, rechecked every time the last wheel turns.
+    private static @Nullable Handle overflow;
+    private static @Nullable BukkitTask task;
+    private static long currentTick = 0;
+    private static int pending = 0;
+    private static int peakPending = 0;
+    private static int ranLastTick = 0;
+
+    static {
+        wheels[0] = new Handle[1 << FIRST_WHEEL_BITS];
+
+        for (int level = 1; level < wheels.length; ++level) wheels[level] = new Handle[1 << WHEEL_BITS];
+    }
+
+    private SoundScheduler()
+    {
+    }
+
+    /**
+     * Starts the task that drives the scheduler.
+     *
+     * @param plugin The plugin to run the task.
+     */
+    public static void load(@NotNull PlayMoreSounds plugin)
+    {
+        if (task != null) return;
+
+        task = Bukkit.getScheduler().runTaskTimer(plugin, SoundScheduler::tick, 1, 1);
+
+        PlayMoreSounds.onDisable(() -> {
+            // Bukkit cancels the task on disable, the pending sounds are discarded with it.
+            task = null;
+
+            for (Handle[] wheel : wheels)
+                for (int slot = 0; slot < wheel.length; ++slot)
+                    while (wheel[slot] != null) wheel[slot].discard();
+
+            while (overflow != null) overflow.discard();
+
+            ranLastTick = 0;
+            peakPending = 0;
+        });
+    }
+
+    /**
+     * @return If the task that drives the scheduler is running.
+     */
+    static boolean isLoaded()
+    {
+        return task != null;
+    }
+
+    /**
+     * Schedules a task to run on the main thread after the delay. If this is called from another thread, the task is
+     * handed over to the scheduler through {@link SoundQueue}.
+     *
+     * @param runnable The task to run.
+     * @param delay    The delay in ticks to wait before running the task.
+     * @param owner    The only player who receives the sound of this task, or null if it plays to more than one player.
+     *                 Tasks of a player are cancelled by {@link #cancel(Player)} when they leave the server.
+     * @return The handle to cancel the task.
+     * @throws IllegalStateException If PlayMoreSounds was not enabled yet.
+     */
+    public static @NotNull Handle schedule(@NotNull Runnable runnable, long delay, @Nullable Player owner)
+    {
+        if (task == null) throw new IllegalStateException("PlayMoreSounds is not loaded.");
+
+        Handle handle = new Handle(runnable, owner == null ? null : owner.getUniqueId());
+
+        if (Bukkit.isPrimaryThread()) {
+            add(handle, delay);
+        } else {
+            // The queue is drained before the tick is counted, so the tick of the drain is the first of the delay.
+            SoundQueue.submit(() -> add(handle, delay));
+        }
+
+        return handle;
+    }
+
+    /**
+     * Cancels all pending tasks whose sound is received only by this player. This is called when the player leaves the
+     * server and must be called on the main thread.
+     *
+     * @param player The recipient of the tasks to cancel.
+     * @return The amount of tasks cancelled.
+     */
+    public static int cancel(@NotNull Player player)
+    {
+        int cancelled = 0;
+        Handle handle;
+
+        while ((handle = handlesByOwner.get(player.getUniqueId())) != null) {
+            handle.cancel();
+            ++cancelled;
+        }
+
+        return cancelled;
+    }
+
+    /**
+     * @return The amount of ticks the scheduler ran since PlayMoreSounds was enabled.
+     */
+    static long getCurrentTick()
+    {
+        return currentTick;
+    }
+
+    /**
+     * @return The amount of tasks waiting to run.
+     */
+    public static int getPendingCount()
+    {
+        return pending;
+    }
+
+    /**
+     * Counts the tasks whose sound is received only by this player and are waiting to run.
+     *
+     * @param player The recipient of the tasks.
+     * @return The amount of tasks waiting to run for this player.
+     */
+    public static int getPendingCount(@NotNull Player player)
+    {
+        int count = 0;
+
+        for (Handle handle = handlesByOwner.get(player.getUniqueId()); handle != null; handle = handle.nextOfOwner)
+            ++count;
+
+        return count;
+    }
+
+    /**
+     * @return The most tasks that were waiting to run at the same time since PlayMoreSounds was enabled.
+     */
+    public static int getPeakPendingCount()
+    {
+        return peakPending;
+    }
+
+    /**
+     * @return The amount of tasks that ran on the last tick.
+     */
+    public static int getRanLastTick()
+    {
+        return ranLastTick;
+    }
+
+    private static void add(@NotNull Handle handle, long delay)
+    {
+        if (handle.state != Handle.NEW) return;
+
+        handle.state = Handle.PENDING;
+        handle.deadline = currentTick + Math.max(delay, 1);
+
+        if (handle.owner != null) {
+            Handle first = handlesByOwner.put(handle.owner, handle);
+
+            if (first != null) first.previousOfOwner = handle;
+
+            handle.nextOfOwner = first;
+        }
+
+        if (++pending > peakPending) peakPending = pending;
+
+        insert(handle);
+    }
+
+    private static void insert(@NotNull Handle handle)
+    {
+        long delta = handle.deadline - currentTick;
+
+        if (delta < 1 << FIRST_WHEEL_BITS) {
+            // Tasks that are due are put on the current slot, which runs right after cascading.
+            handle.link(wheels[0], (int) (Math.max(handle.deadline, currentTick) & FIRST_WHEEL_MASK));
+            return;
+        }
+
+        for (int level = 1; level < wheels.length; ++level) {
+            if (delta < 1L << (shifts[level] + WHEEL_BITS)) {
+                handle.link(wheels[level], (int) ((handle.deadline >> shifts[level]) & WHEEL_MASK));
+                return;
+            }
+        }
+
+        handle.wheel = null;
+        handle.previous = null;
+        handle.next = overflow;
+
+        if (overflow != null) overflow.previous = handle;
+
+        overflow = handle;
+    }
+
+    private static void tick()
+    {
+        SoundCoalescer.nextTick();
+        SoundBudget.nextTick();
+        PermissionCache.nextTick();
+        SoundQueue.drain();
+
+        long tick = ++currentTick;
+        int lastLevel = wheels.length - 1;
+
+        if ((tick & ((1L << (shifts[lastLevel] + WHEEL_BITS)) - 1)) == 0) {
+            Handle handle = overflow;
+
+            overflow = null;
+
+            while (handle != null) {
+                Handle next = handle.next;
+
+                handle.next = null;
+                handle.previous = null;
+                insert(handle);
+                handle = next;
+            }
+        }
+
+        // Moving the tasks of coarser wheels to finer ones, starting from the coarsest.
+        for (int level = lastLevel; level >= 1; --level) {
+            if ((tick & ((1L << shifts[level]) - 1)) != 0) continue;
+
+            Handle[] wheel = wheels[level];
+            int slot = (int) ((tick >> shifts[level]) & WHEEL_MASK);
+            Handle handle;
+
+            while ((handle = wheel[slot]) != null) {
+                handle.unlink();
+                insert(handle);
+            }
+        }
+
+        Handle[] firstWheel = wheels[0];
+        int slot = (int) (tick & FIRST_WHEEL_MASK);
+        int ran = 0;
+        Handle handle;
+
+        // Tasks scheduled while running are always in other slots, so the slot can be drained as it runs.
+        while ((handle = firstWheel[slot]) != null) {
+            handle.run();
+            ++ran;
+        }
+
+        ranLastTick = ran;
+        SoundLoops.tick(tick);
+    }
+
+    /**
+     * A task waiting to run on {@link SoundScheduler}.
+     */
+    public static final class Handle
+    {
+        private static final byte NEW = 0;
+        private static final byte PENDING = 1;
+        private static final byte DONE = 2;
+        private static final byte CANCELLED = 3;
+        private final @NotNull Runnable runnable;
+        private final @Nullable UUID owner;
+        private byte state = NEW;
+        private long deadline;
+        private Handle[] wheel;
+        private int slot;
+        private Handle next;
+        private Handle previous;
+        private Handle nextOfOwner;
+        private Handle previousOfOwner;
+
+        private Handle(@NotNull Runnable runnable, @Nullable UUID owner)
+        {
+            this.runnable = runnable;
+            this.owner = owner;
+        }
+
+        /**
+         * Cancels this task if it didn't run yet. This must be called on the main thread.
+         *
+         * @return If the task was waiting to run and was cancelled.
+         */
+        public boolean cancel()
+        {
+            if (state == NEW) {
+                // The task is still being handed over to the main thread.
+                state = CANCELLED;
+                return true;
+            }
+
+            if (state != PENDING) return false;
+
+            remove();
+            state = CANCELLED;
+            return true;
+        }
+
+        /**
+         * @return If this task is still waiting to run.
+         */
+        public boolean isPending()
+        {
+            return state == NEW || state == PENDING;
+        }
+
+        private void run()
+        {
+            if (state == PENDING) remove();
+            if (state == CANCELLED) return;
+
+            state = DONE;
+
+            try {
+                runnable.run();
+            } catch (Throwable t) {
+                PlayMoreSoundsCore.getErrorHandler().report(t, "Scheduled Sound Exception:");
+            }
+        }
+
+        private void discard()
+        {
+            remove();
+            state = CANCELLED;
+        }
+
+        private void remove()
+        {
+            unlink();
+            --pending;
+
+            if (owner == null) return;
+
+            if (previousOfOwner == null) {
+                if (nextOfOwner == null) {
+                    handlesByOwner.remove(owner);
+                } else {
+                    handlesByOwner.put(owner, nextOfOwner);
+                }
+            } else {
+                previousOfOwner.nextOfOwner = nextOfOwner;
+            }
+
+            if (nextOfOwner != null) nextOfOwner.previousOfOwner = previousOfOwner;
+
+            nextOfOwner = null;
+            previousOfOwner = null;
+        }
+
+        private void link(@NotNull Handle[] wheel, int slot)
+        {
+            Handle first = wheel[slot];
+
+            this.wheel = wheel;
+            this.slot = slot;
+            next = first;
+            previous = null;
+
+            if (first != null) first.previous = this;
+
+            wheel[slot] = this;
+        }
+
+        private void unlink()
+        {
+            if (previous != null) {
+                previous.next = next;
+            } else if (wheel != null) {
+                wheel[slot] = next;
+            } else if (overflow == this) {
+                overflow = next;
+            }
+
+            if (next != null) next.previous = previous;
+
+            next = null;
+            previous = null;
+            wheel = null;
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.epicpluginlib.core.tools.Version;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.bukkit.util.UniversalVersionMethods;
+import com.epicnicity322.playmoresounds.bukkit.util.VersionUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.entity.Vehicle;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.*;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * Keeps the online players of each world bucketed by chunk sized cells, so radius queries only need to visit the cells
+ * the sphere overlaps instead of every player of the world.
+ * <p>
+ * The index is only read on the main thread, where it is kept up to date by move, vehicle move, teleport, join, quit,
+ * respawn and world change events. Players moved without any of these events are synced every few ticks, and queries
+ * also visit the cells around the sphere so they are still found before that.
+ * <p>
+ * Every indexed player also gets a slot, a small number unique while they are online, so per player state can be kept
+ * in dense arrays and bit sets instead of maps.
+ */
+public final class SpatialPlayerIndex implements Listener
+{
+    private static final int CELL_SHIFT = 4;
+    private static final long SYNC_PERIOD = 5;
+    // How far a player is expected to get from their indexed cell in a sync period, around 32 blocks per second.
+    private static final double SYNC_PADDING = 8.0;
+    private static final boolean multiplePassengers = VersionUtils.getBukkitVersion().compareTo(new Version("1.11")) >= 0;
+    private static final @NotNull HashMap<UUID, WorldGrid> grids = new HashMap<>();
+    private static final @NotNull HashMap<UUID, TrackedPlayer> trackedPlayers = new HashMap<>();
+    private static final @NotNull BitSet usedSlots = new BitSet();
+    private static @NotNull TrackedPlayer[] slotPlayers = new TrackedPlayer[16];
+    // Reused for distance checks, the index is only queried on the main thread.
+    private static final @NotNull Location playerLocation = new Location(null, 0, 0, 0);
+    private static boolean loaded = false;
+
+    private SpatialPlayerIndex()
+    {
+    }
+
+    /**
+     * Registers the listeners that keep the index updated and indexes the players that are already online.
+     *
+     * @param plugin The plugin to register the listeners and tasks.
+     */
+    public static void load(@NotNull PlayMoreSounds plugin)
+    {
+        if (loaded) return;
+
+        Bukkit.getPluginManager().registerEvents(new SpatialPlayerIndex(), plugin);
+
+        for (Player player : UniversalVersionMethods.getOnlinePlayers())
+            update(player, player.getLocation());
+
+        // Some plugins and nested vehicles move players without calling any event, so cells are revalidated every few ticks.
+        Bukkit.getScheduler().runTaskTimer(plugin, () -> {
+            for (TrackedPlayer tracked : trackedPlayers.values())
+                update(tracked.player, tracked.player.getLocation(playerLocation));
+        }, SYNC_PERIOD, SYNC_PERIOD);
+
+        PlayMoreSounds.onDisable(() -> {
+            loaded = false;
+
+            for (TrackedPlayer tracked : trackedPlayers.values()) SoundManager.unloadSoundsState(tracked.slot);
+
+            grids.clear();
+            trackedPlayers.clear();
+            usedSlots.clear();
+            Arrays.fill(slotPlayers, null);
+        });
+
+        loaded = true;
+    }
+
+    /**
+     * Whether the index can be queried: it must be loaded and the caller must be on the main thread.
+     *
+     * @return If {@link #collectInRange(Location, double, Collection)} and {@link #collectInWorld(World, Collection)}
+     * can be used.
+     */
+    static boolean isAvailable()
+    {
+        return loaded && Bukkit.isPrimaryThread();
+    }
+
+    /**
+     * Gets the slot of an indexed player. Slots are reused after the player quits.
+     *
+     * @param player The player to get the slot.
+     * @return The slot of the player, or -1 if the player is not indexed or this is not the main thread.
+     */
+    static int getSlot(@NotNull Player player)
+    {
+        if (!isAvailable()) return -1;
+
+        TrackedPlayer tracked = trackedPlayers.get(player.getUniqueId());
+
+        return tracked == null || tracked.player != player ? -1 : tracked.slot;
+    }
+
+    /**
+     * Gets the policy of the world a player is on. Indexed players have the policy of their world kept along with them,
+     * so this is a single lookup instead of a map access by world.
+     *
+     * @param player The player to get the policy.
+     * @param slot   The slot of the player, or -1 if unknown.
+     * @return The policy of the player's world.
+     */
+    static @NotNull WorldPolicy getPolicy(@NotNull Player player, int slot)
+    {
+        if (isSlotOf(player, slot)) return slotPlayers[slot].grid.policy;
+
+        return WorldPolicy.of(player.getWorld());
+    }
+
+    /**
+     * Checks if a slot is still held by the player. Slots are reused, so the player might have quit after the slot was
+     * collected and the slot might belong to someone else now.
+     *
+     * @param player The player that held the slot.
+     * @param slot   The slot of the player, or -1 if unknown.
+     * @return If the slot is the player's current slot.
+     */
+    static boolean isSlotOf(@NotNull Player player, int slot)
+    {
+        if (slot < 0 || slot >= slotPlayers.length) return false;
+
+        TrackedPlayer tracked = slotPlayers[slot];
+
+        return tracked != null && tracked.player == player;
+    }
+
+    /**
+     * Adds to the collection all the players that have their location's distance squared lower or equal to the
+     * {@param radiusSquared}.
+     *
+     * @param location      The center of the sphere.
+     * @param radiusSquared The radius of the sphere, squared.
+     * @param players       The collection to add the players in range.
+     */
+    static void collectInRange(@NotNull Location location, double radiusSquared, @NotNull Collection<? super Player> players)
+    {
+        WorldGrid grid = grids.get(location.getWorld().getUID());
+
+        if (grid == null) return;
+
+        double x = location.getX();
+        double y = location.getY();
+        double z = location.getZ();
+        // Players that moved without an event are still on their old cell, so the cells around the sphere are visited too.
+        double radius = Math.sqrt(radiusSquared) + SYNC_PADDING;
+        int minCellX = floor(x - radius) >> CELL_SHIFT;
+        int maxCellX = floor(x + radius) >> CELL_SHIFT;
+        int minCellZ = floor(z - radius) >> CELL_SHIFT;
+        int maxCellZ = floor(z + radius) >> CELL_SHIFT;
+
+        // Big spheres overlap more cells than there are players in the world, scanning all of them is cheaper then.
+        if ((long) (maxCellX - minCellX + 1) * (maxCellZ - minCellZ + 1) > grid.players.size()) {
+            for (TrackedPlayer tracked : grid.players)
+                addIfInRange(tracked, x, y, z, radiusSquared, players);
+
+            return;
+        }
+
+        for (int cellX = minCellX; cellX <= maxCellX; ++cellX)
+            for (int cellZ = minCellZ; cellZ <= maxCellZ; ++cellZ) {
+                ArrayList<TrackedPlayer> cell = grid.cells.get(cellKey(cellX, cellZ));
+
+                if (cell == null) continue;
+
+                for (int i = 0; i < cell.size(); ++i)
+                    addIfInRange(cell.get(i), x, y, z, radiusSquared, players);
+            }
+    }
+
+    /**
+     * Adds to the collection all indexed players, without asking bukkit to copy the online player list.
+     *
+     * @param players The collection to add the players.
+     */
+    static void collectOnline(@NotNull Collection<? super Player> players)
+    {
+        for (TrackedPlayer tracked : slotPlayers)
+            if (tracked != null) add(tracked, players);
+    }
+
+    /**
+     * Adds to the collection all the players in the world, without asking bukkit to copy the world's player list.
+     *
+     * @param world   The world to get the players.
+     * @param players The collection to add the players of the world.
+     */
+    static void collectInWorld(@NotNull World world, @NotNull Collection<? super Player> players)
+    {
+        WorldGrid grid = grids.get(world.getUID());
+
+        if (grid == null) return;
+
+        for (int i = 0; i < grid.players.size(); ++i)
+            add(grid.players.get(i), players);
+    }
+
+    private static void addIfInRange(@NotNull TrackedPlayer tracked, double x, double y, double z, double radiusSquared, @NotNull Collection<? super Player> players)
+    {
+        tracked.player.getLocation(playerLocation);
+
+        double distanceX = playerLocation.getX() - x;
+        double distanceY = playerLocation.getY() - y;
+        double distanceZ = playerLocation.getZ() - z;
+
+        if (distanceX * distanceX + distanceY * distanceY + distanceZ * distanceZ <= radiusSquared)
+            add(tracked, players);
+    }
+
+    private static void add(@NotNull TrackedPlayer tracked, @NotNull Collection<? super Player> players)
+    {
+        // Buffers keep the slot along with the player, so it doesn't need to be looked up again.
+        if (players instanceof RecipientBuffer) {
+            ((RecipientBuffer) players).add(tracked.player, tracked.slot);
+        } else {
+            players.add(tracked.player);
+        }
+    }
+
+    private static void update(@NotNull Player player, @Nullable Location location)
+    {
+        if (location == null || location.getWorld() == null) return;
+
+        World world = location.getWorld();
+        long cell = cellKey(location.getBlockX() >> CELL_SHIFT, location.getBlockZ() >> CELL_SHIFT);
+        WorldGrid grid = grids.get(world.getUID());
+        TrackedPlayer tracked = trackedPlayers.get(player.getUniqueId());
+
+        if (grid == null) {
+            grid = new WorldGrid(WorldPolicy.of(world));
+            grids.put(world.getUID(), grid);
+        }
+
+        if (tracked == null) {
+            tracked = new TrackedPlayer(player, usedSlots.nextClearBit(0));
+            usedSlots.set(tracked.slot);
+
+            if (tracked.slot >= slotPlayers.length)
+                slotPlayers = Arrays.copyOf(slotPlayers, Math.max(slotPlayers.length << 1, tracked.slot + 1));
+
+            slotPlayers[tracked.slot] = tracked;
+            trackedPlayers.put(player.getUniqueId(), tracked);
+            SoundManager.loadSoundsState(player, tracked.slot);
+        } else {
+            if (tracked.grid == grid && tracked.cell == cell) return;
+
+            tracked.grid.remove(tracked);
+        }
+
+        grid.add(tracked, cell);
+    }
+
+    private static void remove(@NotNull Player player)
+    {
+        TrackedPlayer tracked = trackedPlayers.remove(player.getUniqueId());
+
+        if (tracked == null) return;
+
+        tracked.grid.remove(tracked);
+        SoundManager.unloadSoundsState(tracked.slot);
+        PermissionCache.invalidate(tracked.slot);
+        usedSlots.clear(tracked.slot);
+        slotPlayers[tracked.slot] = null;
+    }
+
+    private static long cellKey(int cellX, int cellZ)
+    {
+        return ((long) cellX << 32) | (cellZ & 0xFFFFFFFFL);
+    }
+
+    private static int floor(double value)
+    {
+        int floor = (int) value;
+        return value < floor ? floor - 1 : floor;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(PlayerJoinEvent event)
+    {
+        Player player = event.getPlayer();
+
+        // The player might have rejoined before their quit was handled, the new player instance must be tracked.
+        remove(player);
+        update(player, player.getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event)
+    {
+        remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(PlayerMoveEvent event)
+    {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+
+        // Moves within the same cell don't change the index.
+        if (to == null || (from.getBlockX() >> CELL_SHIFT == to.getBlockX() >> CELL_SHIFT
+                && from.getBlockZ() >> CELL_SHIFT == to.getBlockZ() >> CELL_SHIFT && from.getWorld() == to.getWorld()))
+            return;
+
+        update(event.getPlayer(), to);
+    }
+
+    @SuppressWarnings("deprecation")
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onVehicleMove(VehicleMoveEvent event)
+    {
+        Location from = event.getFrom();
+        Location to = event.getTo();
+
+        // Players riding vehicles don't call PlayerMoveEvent.
+        if (from.getBlockX() >> CELL_SHIFT == to.getBlockX() >> CELL_SHIFT
+                && from.getBlockZ() >> CELL_SHIFT == to.getBlockZ() >> CELL_SHIFT && from.getWorld() == to.getWorld())
+            return;
+
+        Vehicle vehicle = event.getVehicle();
+
+        if (multiplePassengers) {
+            for (Entity passenger : vehicle.getPassengers())
+                if (passenger instanceof Player) update((Player) passenger, passenger.getLocation(playerLocation));
+        } else {
+            Entity passenger = vehicle.getPassenger();
+
+            if (passenger instanceof Player) update((Player) passenger, passenger.getLocation(playerLocation));
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(PlayerTeleportEvent event)
+    {
+        update(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(PlayerChangedWorldEvent event)
+    {
+        Player player = event.getPlayer();
+
+        update(player, player.getLocation());
+        // Permission plugins might give different permissions on each world.
+        PermissionCache.invalidate(player);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(PlayerRespawnEvent event)
+    {
+        update(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(WorldUnloadEvent event)
+    {
+        // Unloaded worlds have no players, their grid is created again with a new policy if the world is loaded again.
+        grids.remove(event.getWorld().getUID());
+    }
+
+    private static final class TrackedPlayer
+    {
+        private final @NotNull Player player;
+        private final int slot;
+        private WorldGrid grid;
+        private long cell;
+
+        private TrackedPlayer(@NotNull Player player, int slot)
+        {
+            this.player = player;
+            this.slot = slot;
+        }
+    }
+
+    private static final class WorldGrid
+    {
+        private final @NotNull HashMap<Long, ArrayList<TrackedPlayer>> cells = new HashMap<>();
+        private final @NotNull ArrayList<TrackedPlayer> players = new ArrayList<>();
+        private final @NotNull WorldPolicy policy;
+
+        private WorldGrid(@NotNull WorldPolicy policy)
+        {
+            this.policy = policy;
+        }
+
+        private void add(@NotNull TrackedPlayer tracked, long cell)
+        {
+            ArrayList<TrackedPlayer> cellPlayers = cells.get(cell);
+
+            if (cellPlayers == null) {
+                cellPlayers = new ArrayList<>(4);
+                cells.put(cell, cellPlayers);
+            }
+
+            cellPlayers.add(tracked);
+            players.add(tracked);
+            tracked.grid = this;
+            tracked.cell = cell;
+        }
+
+        private void remove(@NotNull TrackedPlayer tracked)
+        {
+            ArrayList<TrackedPlayer> cellPlayers = cells.get(tracked.cell);
+
+            if (cellPlayers != null) {
+                cellPlayers.remove(tracked);
+
+                // Not keeping empty cells, players are always moving around.
+                if (cellPlayers.isEmpty()) cells.remove(tracked.cell);
+            }
+
+            players.remove(tracked);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.sound.SoundType;
+import com.epicnicity322.playmoresounds.core.util.PMSHelper;
+import com.epicnicity322.yamlhandler.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * The sounds to stop when a player leaves the region or biome where they were played, set on the "Stop On Exit" keys of
+ * a sound section. Sound names are resolved once, when the section is compiled.
+ * <p>
+ * Players have their own list of sounds to stop, tracked by source, the listener or addon that played the sounds, and
+ * area, the region or biome the sounds belong to. Stopping the sounds of an area only goes through the list of the
+ * player leaving it.
+ */
+public final class StopOnExit
+{
+    private static final @NotNull HashMap<UUID, ArrayList<Tracked>> trackedByPlayer = new HashMap<>();
+
+    static {
+        PlayMoreSounds.onDisable(trackedByPlayer::clear);
+    }
+
+    private final long delay;
+    private final @NotNull Set<String> sounds;
+    // The sounds that can be stopped by SoundManager, filtered beforehand so it does not change the set when stopping.
+    private final @NotNull HashSet<String> stoppableSounds;
+
+    private StopOnExit(long delay, @NotNull HashSet<String> sounds)
+    {
+        this.delay = delay;
+        this.sounds = Collections.unmodifiableSet(sounds);
+
+        stoppableSounds = new HashSet<>(sounds);
+        stoppableSounds.removeIf(sound -> !PMSHelper.isNamespacedKey(sound));
+    }
+
+    /**
+     * Compiles the "Stop On Exit" keys of a sound section.
+     *
+     * @param section The section of the sound with the "Stop On Exit" and "Sounds" keys.
+     * @return The sounds to stop, or null if stop on exit is not enabled for this section.
+     */
+    public static @Nullable StopOnExit of(@NotNull ConfigurationSection section)
+    {
+        if (!section.getBoolean("Stop On Exit.Enabled").orElse(false)) return null;
+
+        HashSet<String> sounds = new HashSet<>();
+        ConfigurationSection soundsSection = section.getConfigurationSection("Sounds");
+
+        if (soundsSection != null)
+            for (String sound : soundsSection.getNodes().keySet()) {
+                String soundToStop = soundsSection.getString(sound + ".Sound").orElse("");
+
+                sounds.add(SoundType.getPresentSoundNames().contains(soundToStop) ? SoundType.valueOf(soundToStop).getSound().orElse("") : soundToStop);
+            }
+
+        return new StopOnExit(section.getNumber("Stop On Exit.Delay").orElse(0).longValue(), sounds);
+    }
+
+    /**
+     * Tracks sounds to be stopped when the player leaves an area.
+     *
+     * @param player     The player who is hearing the sounds.
+     * @param source     The listener or addon that played the sounds.
+     * @param area       The region or biome the sounds belong to, or null if the sounds are stopped on any area change
+     *                   of the source.
+     * @param stopOnExit The sounds to stop, does nothing if null.
+     */
+    public static void track(@NotNull Player player, @NotNull Object source, @Nullable Object area, @Nullable StopOnExit stopOnExit)
+    {
+        if (stopOnExit == null) return;
+
+        ArrayList<Tracked> tracked = trackedByPlayer.computeIfAbsent(player.getUniqueId(), uuid -> new ArrayList<>(2));
+
+        // The same sounds played again on the same area are only stopped once.
+        for (int i = 0; i < tracked.size(); ++i) {
+            Tracked entry = tracked.get(i);
+
+            if (entry.stopOnExit == stopOnExit && entry.source == source && Objects.equals(entry.area, area)) return;
+        }
+
+        tracked.add(new Tracked(source, area, stopOnExit));
+    }
+
+    /**
+     * Stops the tracked sounds of the player in an area with {@link SoundManager#stopSounds(Player, HashSet, long)},
+     * and stops tracking them.
+     *
+     * @param player The player who left the area.
+     * @param source The listener or addon that played the sounds.
+     * @param area   The area the player left, or null to stop the sounds of every area of this source.
+     */
+    public static void stop(@NotNull Player player, @NotNull Object source, @Nullable Object area)
+    {
+        untrack(player, source, area, (stopPlayer, stopOnExit) -> SoundManager.stopSounds(stopPlayer, stopOnExit.stoppableSounds, stopOnExit.delay));
+    }
+
+    /**
+     * Stops tracking the sounds of the player in an area, passing each one to the action so it can stop them in its
+     * own way.
+     *
+     * @param player The player who left the area.
+     * @param source The listener or addon that played the sounds.
+     * @param area   The area the player left, or null to untrack the sounds of every area of this source.
+     * @param action What to do with the sounds that were tracked.
+     */
+    public static void untrack(@NotNull Player player, @NotNull Object source, @Nullable Object area, @NotNull StopAction action)
+    {
+        ArrayList<Tracked> tracked = trackedByPlayer.get(player.getUniqueId());
+
+        if (tracked == null) return;
+
+        for (int i = tracked.size() - 1; i >= 0; --i) {
+            Tracked entry = tracked.get(i);
+
+            if (entry.source != source || (area != null && !area.equals(entry.area))) continue;
+
+            tracked.remove(i);
+            action.stop(player, entry.stopOnExit);
+        }
+
+        if (tracked.isEmpty()) trackedByPlayer.remove(player.getUniqueId());
+    }
+
+    /**
+     * Forgets all sounds tracked for the player, without stopping them. Used when the player leaves the server.
+     *
+     * @param player The player to forget.
+     */
+    public static void forget(@NotNull Player player)
+    {
+        trackedByPlayer.remove(player.getUniqueId());
+    }
+
+    /**
+     * @param source The listener or addon that played the sounds.
+     * @return If there are sounds of this source waiting for a player to leave an area.
+     */
+    public static boolean isTracking(@NotNull Object source)
+    {
+        for (ArrayList<Tracked> tracked : trackedByPlayer.values())
+            for (int i = 0; i < tracked.size(); ++i)
+                if (tracked.get(i).source == source) return true;
+
+        return false;
+    }
+
+    /**
+     * @return The time in ticks to wait before stopping the sounds.
+     */
+    public long getDelay()
+    {
+        return delay;
+    }
+
+    /**
+     * @return The resolved names of the sounds to stop, including the ones that are not minecraft sounds.
+     */
+    public @NotNull Set<String> getSounds()
+    {
+        return sounds;
+    }
+
+    /**
+     * Stops the sounds of a player that left an area.
+     */
+    @FunctionalInterface
+    public interface StopAction
+    {
+        /**
+         * @param player     The player who left the area.
+         * @param stopOnExit The sounds to stop.
+         */
+        void stop(@NotNull Player player, @NotNull StopOnExit stopOnExit);
+    }
+
+    private static final class Tracked
+    {
+        private final @NotNull Object source;
+        private final @Nullable Object area;
+        private final @NotNull StopOnExit stopOnExit;
+
+        private Tracked(@NotNull Object source, @Nullable Object area, @NotNull StopOnExit stopOnExit)
+        {
+            this.source = source;
+            this.area = area;
+            this.stopOnExit = stopOnExit;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * PlayMoreSounds - A bukkit plugin that manages and plays sounds.
+ * Copyright (C) 2021 Christiano Rangel
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.epicnicity322.playmoresounds.bukkit.sound;
+
+import com.epicnicity322.epicpluginlib.core.logger.ConsoleLogger;
+import com.epicnicity322.playmoresounds.bukkit.PlayMoreSounds;
+import com.epicnicity322.playmoresounds.core.config.Configurations;
+import com.epicnicity322.playmoresounds.core.sound.SoundCategory;
+import com.epicnicity322.yamlhandler.Configuration;
+import com.epicnicity322.yamlhandler.ConfigurationSection;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The rules of the sounds played to players on a world, set on "World Black List" and "World Policies" of config.
+ * <p>
+ * Policies are kept by world and updated in place when the configurations are reloaded, so anything holding a policy
+ * always sees the current rules and checking them when playing a sound doesn't need to read the config.
+ */
+public final class WorldPolicy
+{
+    private static final @NotNull SoundCategory[] categories = SoundCategory.values();
+    private static final @NotNull ConcurrentHashMap<UUID, WorldPolicy> policies = new ConcurrentHashMap<>();
+    private static @NotNull HashSet<String> blackListedWorlds = new HashSet<>();
+    private static @Nullable ConfigurationSection policiesSection;
+
+    static {
+        reload();
+        PlayMoreSounds.onReload(WorldPolicy::reload);
+        PlayMoreSounds.onEnable(() -> Bukkit.getPluginManager().registerEvents(new WorldListener(), PlayMoreSounds.getInstance()));
+        PlayMoreSounds.onDisable(policies::clear);
+    }
+
+    private final @NotNull String worldName;
+    private final @NotNull boolean[] disabledCategories = new boolean[categories.length];
+    private boolean blocked;
+    private float volumeMultiplier;
+
+    private WorldPolicy(@NotNull String worldName)
+    {
+        this.worldName = worldName;
+        update();
+    }
+
+    /**
+     * Gets the policy of a world. The same instance is returned until the world is unloaded.
+     *
+     * @param world The world to get the policy.
+     * @return The policy of the world.
+     */
+    public static @NotNull WorldPolicy of(@NotNull World world)
+    {
+        WorldPolicy policy = policies.get(world.getUID());
+
+        if (policy == null) {
+            policy = new WorldPolicy(world.getName());
+
+            WorldPolicy previous = policies.putIfAbsent(world.getUID(), policy);
+
+            if (previous != null) policy = previous;
+        }
+
+        return policy;
+    }
+
+    private static synchronized void reload()
+    {
+        Configuration config = Configurations.CONFIG.getConfigurationHolder().getConfiguration();
+
+        blackListedWorlds = new HashSet<>(config.getCollection("World Black List", Object::toString));
+        policiesSection = config.getConfigurationSection("World Policies");
+
+        for (WorldPolicy policy : policies.values()) policy.update();
+    }
+
+    private synchronized void update()
+    {
+        // World names might have dots, so the node is not looked up by path.
+        Object node = policiesSection == null ? null : policiesSection.getNodes().get(worldName);
+        ConfigurationSection section = node instanceof ConfigurationSection ? (ConfigurationSection) node : null;
+
+        blocked = blackListedWorlds.contains(worldName) || (section != null && section.getBoolean("Blocked").orElse(false));
+        volumeMultiplier = section == null ? 1.0f : Math.max(section.getNumber("Volume Multiplier").orElse(1.0f).floatValue(), 0.0f);
+
+        Arrays.fill(disabledCategories, false);
+
+        if (section == null) return;
+
+        Collection<String> disabled = section.getCollection("Disabled Categories", Object::toString);
+
+        for (String categoryName : disabled) {
+            try {
+                disabledCategories[SoundCategory.valueOf(categoryName.toUpperCase()).ordinal()] = true;
+            } catch (IllegalArgumentException e) {
+                PlayMoreSounds.getConsoleLogger().log("The category '" + categoryName + "' in policy of world '" + worldName + "' does not exist.", ConsoleLogger.Level.WARN);
+            }
+        }
+    }
+
+    /**
+     * @return If players on this world should not hear any sounds.
+     */
+    public boolean isBlocked()
+    {
+        return blocked;
+    }
+
+    /**
+     * @return The multiplier applied to the volume of sounds played to players on this world.
+     */
+    public float getVolumeMultiplier()
+    {
+        return volumeMultiplier;
+    }
+
+    /**
+     * @param category The category of the sound.
+     * @return If sounds of this category should not be played to players on this world.
+     */
+    public boolean isCategoryDisabled(@NotNull SoundCategory category)
+    {
+        return disabledCategories[category.ordinal()];
+    }
+
+    /**
+     * Checks if a sound can be played to players on this world, taking in account if the world is blocked and if the
+     * sound's category is disabled.
+     *
+     * @param category The category of the sound.
+     * @return If the sound can be played.
+     */
+    public boolean allows(@NotNull SoundCategory category)
+    {
+        return !blocked && !disabledCategories[category.ordinal()];
+    }
+
+    private static final class WorldListener implements Listener
+    {
+        @EventHandler(priority = EventPriority.MONITOR)
+        public void onWorldLoad(WorldLoadEvent event)
+        {
+            of(event.getWorld());
+        }
+
+        @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+        public void onWorldUnload(WorldUnloadEvent event)
+        {
+            // The world folder might be renamed before it is loaded again, so the policy is built again on load.
+            policies.remove(event.getWorld().getUID());
+        }
+    }
+}
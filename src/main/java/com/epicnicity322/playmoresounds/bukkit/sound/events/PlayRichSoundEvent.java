@@ -53,6 +53,17 @@ public class PlayRichSoundEvent extends Event implements Cancellable
         return handlers;
     }
 
+    /**
+     * Whether there are listeners registered for this event, checked before a rich sound is played, the same way as
+     * {@link PlaySoundEvent#hasListeners()}.
+     *
+     * @return If any listener is registered for this event.
+     */
+    public static boolean hasListeners()
+    {
+        return handlers.getRegisteredListeners().length != 0;
+    }
+
     @Override
     public boolean isCancelled()
     {
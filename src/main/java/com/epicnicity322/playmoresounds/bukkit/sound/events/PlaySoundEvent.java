@@ -64,6 +64,20 @@ public class PlaySoundEvent extends Event implements Cancellable
         return handlers;
     }
 
+    /**
+     * Whether there are listeners registered for this event. PlayMoreSounds skips creating and calling this event when
+     * nobody is listening to it.
+     * <p>
+     * {@link HandlerList} rebuilds its array of listeners every time a listener is registered or unregistered, so this
+     * is only a check on the length of that cached array.
+     *
+     * @return If any listener is registered for this event.
+     */
+    public static boolean hasListeners()
+    {
+        return handlers.getRegisteredListeners().length != 0;
+    }
+
     @Override
     public @NotNull HandlerList getHandlers()
     {
@@ -104,6 +118,9 @@ public class PlaySoundEvent extends Event implements Cancellable
 
     /**
      * Gets all the other players that are hearing this sound.
+     * <p>
+     * This collection is reused by PlayMoreSounds once the sound is played, so copy it if you want to keep the players
+     * after the event.
      *
      * @return The players that are hearing this sound.
      */
@@ -55,6 +55,17 @@ public class PrePlaySoundEvent extends Event implements Cancellable
         return handlers;
     }
 
+    /**
+     * Whether there are listeners registered for this event, checked before the recipients of a sound are resolved.
+     * See {@link PlaySoundEvent#hasListeners()}.
+     *
+     * @return If any listener is registered for this event.
+     */
+    public static boolean hasListeners()
+    {
+        return handlers.getRegisteredListeners().length != 0;
+    }
+
     public @NotNull HandlerList getHandlers()
     {
         return handlers;
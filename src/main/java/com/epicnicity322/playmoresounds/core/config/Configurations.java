@@ -438,6 +438,8 @@ public enum Configurations
             "    Max Showing Borders: 30\n" +
             "    # The time in ticks of how long the border should be shown.\n" +
             "    Showing Time: 140\n" +
+            "    # Only the border blocks up to this distance from the player are shown.\n" +
+            "    Max Distance: 32\n" +
             "  # The max area in m³ a region can have.\n" +
             "  # Use permission 'playmoresounds.region.create.unlimited.area' to bypass.\n" +
             "  Max Area: 15625\n" +
@@ -463,6 +465,54 @@ public enum Configurations
             "#play sounds.\n" +
             "World Black List: []\n" +
             "\n" +
+            "# Rules for sounds played on specific worlds. Players on a world with 'Blocked' set to true don't hear\n" +
+            "#any sounds, like worlds in World Black List. 'Volume Multiplier' changes the volume of every sound\n" +
+            "#played to players on the world, and sounds of the categories in 'Disabled Categories' are not played.\n" +
+            "#\n" +
+            "# Example:\n" +
+            "#World Policies:\n" +
+            "#  world_nether:\n" +
+            "#    Blocked: false\n" +
+            "#    Volume Multiplier: 0.5\n" +
+            "#    Disabled Categories:\n" +
+            "#    - WEATHER\n" +
+            "#    - MUSIC\n" +
+            "World Policies: {}\n" +
+            "\n" +
+            "# Options for servers with lots of players and sounds.\n" +
+            "Performance:\n" +
+            "  # The max amount of sounds submitted by async listeners, like chat sounds, that can play on each\n" +
+            "  #tick. Sounds over this limit play on the next ticks. Use 0 for no limit.\n" +
+            "  Submitted Sounds Per Tick: 0\n" +
+            "  # Identical sounds sent to a player on the same tick and place are only sent once, unless a copy is\n" +
+            "  #louder than the ones already sent. This reduces packets when lots of sounds play at once, like on\n" +
+            "  #mob farms.\n" +
+            "  Coalesce Sounds: true\n" +
+            "  # Skips players who are too far to hear a sound. Minecraft clients hear sounds up to 16 blocks, or\n" +
+            "  #16 blocks per volume if the volume is higher than 1. Keep this false if your resource pack changes\n" +
+            "  #the attenuation distance of sounds.\n" +
+            "  Cull Inaudible Sounds: false\n" +
+            "  # Region and biome changes are checked on every move of players. Set this to an amount of ticks to\n" +
+            "  #check the location of all players at once every that amount of ticks instead, which is lighter on\n" +
+            "  #busy servers, but enter and leave sounds may play up to that amount of ticks late. Use 0 to check on\n" +
+            "  #every move.\n" +
+            "  Movement Sampling Period: 0\n" +
+            "  # The time in ticks PlayMoreSounds remembers the permissions of players used by sounds, like\n" +
+            "  #'Permission To Listen'. Permissions are also forgotten when the player changes worlds. Use 0 to\n" +
+            "  #always ask the permission plugin.\n" +
+            "  Permission Cache Time: 100\n" +
+            "  # When the server is overloaded, sounds are played by their priority. Sounds can have the key\n" +
+            "  #'Priority' set to LOW, NORMAL or HIGH, being NORMAL the default. LOW sounds are dropped, NORMAL\n" +
+            "  #sounds are delayed by a tick and dropped if the server is still overloaded, and HIGH sounds always\n" +
+            "  #play. Join, death and region sounds are HIGH by default.\n" +
+            "  Budget:\n" +
+            "    # The max amount of sounds sent to players on a tick before the server is overloaded. Use 0 for\n" +
+            "    #no limit.\n" +
+            "    Sounds Per Tick: 0\n" +
+            "    # The average tick time in milliseconds that the server is overloaded, 45 is a good start. Use 0 to\n" +
+            "    #disable.\n" +
+            "    Max Tick Time: 0\n" +
+            "\n" +
             "# Update scheduler\n" +
             "Updater:\n" +
             "  Enabled: true\n" +
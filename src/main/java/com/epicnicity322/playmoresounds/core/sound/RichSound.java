@@ -24,6 +24,7 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Locale;
 import java.util.Objects;
 
 public abstract class RichSound<T extends Sound>
@@ -32,6 +33,7 @@ public abstract class RichSound<T extends Sound>
     private @Nullable ConfigurationSection section;
     private boolean enabled;
     private boolean cancellable;
+    private @NotNull Priority priority = Priority.NORMAL;
     private @NotNull Collection<T> childSounds;
 
     public RichSound(@NotNull String name, boolean enabled, boolean cancellable, @Nullable Collection<T> childSounds)
@@ -43,11 +45,33 @@ public abstract class RichSound<T extends Sound>
     }
 
     public RichSound(@NotNull ConfigurationSection section)
+    {
+        this(section, Priority.NORMAL);
+    }
+
+    /**
+     * Creates a rich sound from a section, using the default priority if the section has no valid "Priority" key.
+     *
+     * @param section         The section of the rich sound.
+     * @param defaultPriority The priority to use if none is set on the section.
+     */
+    public RichSound(@NotNull ConfigurationSection section, @NotNull Priority defaultPriority)
     {
         this.section = section;
         this.name = section.getPath();
         enabled = section.getBoolean("Enabled").orElse(false);
         cancellable = section.getBoolean("Cancellable").orElse(false);
+        priority = defaultPriority;
+
+        String priorityName = section.getString("Priority").orElse(null);
+
+        if (priorityName != null) {
+            try {
+                priority = Priority.valueOf(priorityName.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+
         childSounds = new HashSet<>();
 
         ConfigurationSection sounds = section.getConfigurationSection("Sounds");
@@ -91,6 +115,25 @@ public abstract class RichSound<T extends Sound>
         this.cancellable = cancellable;
     }
 
+    /**
+     * The priority of this sound when the server is overloaded. Sounds with low priority are the first ones to be
+     * dropped.
+     *
+     * @return The priority of this sound.
+     */
+    public @NotNull Priority getPriority()
+    {
+        return priority;
+    }
+
+    public void setPriority(@Nullable Priority priority)
+    {
+        if (priority == null)
+            this.priority = Priority.NORMAL;
+        else
+            this.priority = priority;
+    }
+
     public @NotNull Collection<T> getChildSounds()
     {
         return childSounds;
@@ -114,6 +157,7 @@ public abstract class RichSound<T extends Sound>
 
         return enabled == that.enabled
                 && cancellable == that.cancellable
+                && priority == that.priority
                 && name.equals(that.name)
                 && Objects.equals(section, that.section)
                 && childSounds.equals(that.childSounds);
@@ -122,6 +166,22 @@ public abstract class RichSound<T extends Sound>
     @Override
     public int hashCode()
     {
-        return Objects.hash(name, section, enabled, cancellable, childSounds);
+        return Objects.hash(name, section, enabled, cancellable, priority, childSounds);
+    }
+
+    public enum Priority
+    {
+        /**
+         * Dropped when the server is overloaded.
+         */
+        LOW,
+        /**
+         * Delayed by a tick when the server is overloaded, and dropped if it is still overloaded.
+         */
+        NORMAL,
+        /**
+         * Always played.
+         */
+        HIGH
     }
 }
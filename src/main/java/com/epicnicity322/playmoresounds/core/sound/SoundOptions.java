@@ -34,6 +34,7 @@ public class SoundOptions
     private double radius;
     private double radiusSquared;
     private @NotNull Map<Direction, Double> relativeLocation = new HashMap<>();
+    private int modifications = 0;
 
     /**
      * {@link SoundOptions} is used to get the Options of a {@link Sound} more easily.
@@ -97,6 +98,7 @@ public class SoundOptions
     public void setIgnoresDisabled(boolean ignoresDisabled)
     {
         this.ignoresDisabled = ignoresDisabled;
+        ++modifications;
     }
 
     /**
@@ -118,6 +120,8 @@ public class SoundOptions
             this.permissionToListen = null;
         else
             this.permissionToListen = permissionToListen;
+
+        ++modifications;
     }
 
     /**
@@ -138,6 +142,8 @@ public class SoundOptions
             this.permissionRequired = null;
         else
             this.permissionRequired = permissionRequired;
+
+        ++modifications;
     }
 
     /**
@@ -158,6 +164,7 @@ public class SoundOptions
     {
         this.radius = radius;
         radiusSquared = radius > 0 ? radius * radius : radius;
+        ++modifications;
     }
 
     /**
@@ -172,6 +179,9 @@ public class SoundOptions
 
     /**
      * Gets the Relative Location option as HashMap.
+     * <p>
+     * Playable sounds precompute their offsets from this map, changes made directly to it are only noticed after
+     * {@link #setRelativeLocation(Map)} is called.
      *
      * @return The distance to add to the final sound location relative to where the player is looking.
      */
@@ -186,6 +196,19 @@ public class SoundOptions
             this.relativeLocation = new HashMap<>();
         else
             this.relativeLocation = relativePositions;
+
+        ++modifications;
+    }
+
+    /**
+     * Counts how many times the setters of these options were called. Playable sounds use this to know when the values
+     * they precomputed from these options are outdated.
+     *
+     * @return The number of modifications made to these options.
+     */
+    public int getModifications()
+    {
+        return modifications;
     }
 
     /**
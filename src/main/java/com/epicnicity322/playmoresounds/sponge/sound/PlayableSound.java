@@ -35,10 +35,20 @@ import org.spongepowered.api.world.Location;
 import org.spongepowered.api.world.World;
 
 import java.util.Collection;
+import java.util.HashSet;
 
 public class PlayableSound extends Sound implements Playable
 {
     private static final @NotNull ConfigurationHolder config = Configurations.CONFIG.getConfigurationHolder();
+    private static @NotNull HashSet<String> blackListedWorlds = new HashSet<>();
+
+    static {
+        // Keeping the black list in a set, this way it doesn't need to read from config for every player in range.
+        Runnable blackListedWorldsUpdater = () -> blackListedWorlds = new HashSet<>(config.getConfiguration().getCollection("World Black List", Object::toString));
+
+        blackListedWorldsUpdater.run();
+        PlayMoreSounds.addOnReloadRunnable(blackListedWorldsUpdater);
+    }
 
     private PlayMoreSounds plugin = PlayMoreSounds.getInstance();
 
@@ -99,7 +109,7 @@ public class PlayableSound extends Sound implements Playable
                       @NotNull PlayableSound instance)
     {
         for (Player inRange : players) {
-            if (!config.getConfiguration().getCollection("World Black List").contains(inRange.getWorld().getName())
+            if (!blackListedWorlds.contains(inRange.getWorld().getName())
                     //&& (getOptions().ignoresDisabled() || SoundManager.getSoundsState(inRange))
                     && (getOptions().getPermissionToListen() == null || inRange.hasPermission(getOptions().getPermissionToListen()))
                     && (sourcePlayer == null || inRange.canSee(sourcePlayer))) {